@@ -33,6 +33,7 @@ import de.libalf.LearningAlgorithm;
 import de.libalf.LibALFFactory.Algorithm;
 import de.libalf.jni.JNIFactory;
 import dk.brics.automaton.Automaton;
+import dk.brics.automaton.RunAutomaton;
 import dk.brics.automaton.State;
 import dk.brics.automaton.Transition;
 import glade.grammar.MultiGrammarUtils.MultiGrammar;
@@ -40,6 +41,7 @@ import glade.grammar.MultiGrammarUtils.MultiProduction;
 import glade.program.ProgramDataUtils.ProgramExamples;
 import glade.util.CharacterUtils;
 import glade.util.Log;
+import glade.util.ParallelUtils;
 import glade.util.IteratorUtils.SampleIterable;
 import glade.util.IteratorUtils.Sampler;
 import glade.util.LearnerUtils.DiscriminativeLearner;
@@ -121,8 +123,38 @@ public class AutomatonUtils {
 		return automaton;
 	}
 	
+	// table-driven copy of an automaton, safe to query from several threads
+	public static class CompiledAutomatonOracle implements DiscriminativeOracle {
+		private final RunAutomaton automaton;
+		
+		public CompiledAutomatonOracle(Automaton automaton) {
+			this.automaton = new RunAutomaton(automaton.clone());
+		}
+		
+		@Override
+		public boolean query(String query) {
+			return this.automaton.run(query);
+		}
+		
+		@Override
+		public List<Boolean> queryAll(List<String> queries) {
+			return ParallelUtils.queryAll(this, queries, this.getParallelism());
+		}
+		
+		@Override
+		public boolean queryAllValid(List<String> queries) {
+			return ParallelUtils.queryAllValid(this, queries, this.getParallelism());
+		}
+		
+		@Override
+		public int getParallelism() {
+			return ParallelUtils.NUM_PROCESSORS;
+		}
+	}
+	
 	public static class AutomatonOracle implements DiscriminativeOracle, InteractiveOracle<Automaton> {
 		private final Automaton automaton;
+		private CompiledAutomatonOracle compiled = null;
 		
 		public AutomatonOracle(Automaton automaton) {
 			this.automaton = automaton;
@@ -132,10 +164,27 @@ public class AutomatonUtils {
 			return this.automaton;
 		}
 		
+		private synchronized CompiledAutomatonOracle getCompiled() {
+			if(this.compiled == null) {
+				this.compiled = new CompiledAutomatonOracle(this.automaton);
+			}
+			return this.compiled;
+		}
+		
 		@Override
 		public boolean query(String query) {
 			return automaton.run(query);
 		}
+		
+		@Override
+		public List<Boolean> queryAll(List<String> queries) {
+			return this.getCompiled().queryAll(queries);
+		}
+		
+		@Override
+		public boolean queryAllValid(List<String> queries) {
+			return this.getCompiled().queryAllValid(queries);
+		}
 
 		@Override
 		public String equivalenceQuery(Automaton proposedAutomaton) {
@@ -158,6 +207,7 @@ public class AutomatonUtils {
 		private final double complementProbability;
 		private final int maxLength;
 		private final Random random;
+		private CompiledAutomatonOracle compiled = null;
 		
 		public RandomAutomatonOracle(Automaton automaton, double automatonTerminationProbability, double complementProbability, int maxLength, Random random) {
 			this.automaton = automaton;
@@ -177,6 +227,23 @@ public class AutomatonUtils {
 			return this.automaton.run(query);
 		}
 		
+		private synchronized CompiledAutomatonOracle getCompiled() {
+			if(this.compiled == null) {
+				this.compiled = new CompiledAutomatonOracle(this.automaton);
+			}
+			return this.compiled;
+		}
+		
+		@Override
+		public List<Boolean> queryAll(List<String> queries) {
+			return this.getCompiled().queryAll(queries);
+		}
+		
+		@Override
+		public boolean queryAllValid(List<String> queries) {
+			return this.getCompiled().queryAllValid(queries);
+		}
+		
 		private String sampleAutomaton(Automaton sampleAutomaton) {
 			return new RandomAutomatonString(this.random).nextString(sampleAutomaton, this.automatonTerminationProbability, this.maxLength);
 		}
@@ -17,6 +17,9 @@ package glade.constants;
 
 import glade.program.LearnerDataUtils.LearnerDataParameters;
 import glade.program.ProgramDataUtils.FileParameters;
+import glade.program.ProgramDataUtils.OracleMode;
+import glade.util.ProcessUtils.AdaptiveTimeoutParameters;
+import glade.util.ProcessUtils.VerdictMode;
 
 public class Files {
 	public static final String QUERY_PROG = "prog-query";
@@ -25,11 +28,22 @@ public class Files {
 	
 	public static final String FILENAME = "seed";
 	public static final long TIMEOUT = 400;
+	public static final OracleMode ORACLE_MODE = OracleMode.SIMPLE;
+	public static final int NUM_WORKERS = Runtime.getRuntime().availableProcessors();
+	public static final long CACHE_BYTES = 0;
+	public static final String CACHE_PATH = "data/cache";
+	public static final VerdictMode VERDICT_MODE = VerdictMode.OUTPUT;
+	public static final boolean USE_ADAPTIVE_TIMEOUT = false;
+	public static final AdaptiveTimeoutParameters ADAPTIVE_TIMEOUT = new AdaptiveTimeoutParameters(0.95, 3.0, 20, 5000, 256, 8);
+	public static final boolean MINIMIZE_SEEDS = false;
+	public static final boolean CLUSTER_SEEDS = false; // merge one seed per cluster of near-duplicates, plus the seeds that grammar rejects
+	public static final long CHART_CACHE_BYTES = 128L << 20; // per grammar oracle; bounds the prefix charts kept for incremental parsing
+	public static final double ESTIMATE_HALF_WIDTH = 0.0; // stop rate estimates once the 95% interval is this narrow; 0 uses every sample
 	
 	public static final String EXAMPLE_TRAIN_PATH = "data/inputs-train";
 	public static final String EXAMPLE_TEST_PATH = "data/inputs-test";
 	
-	public static final FileParameters FILE_PARAMETERS = new FileParameters(QUERY_PROG, GCOV_PROG, AFL_PROG, FILENAME, TIMEOUT, EXAMPLE_TRAIN_PATH, EXAMPLE_TEST_PATH);
+	public static final FileParameters FILE_PARAMETERS = new FileParameters(QUERY_PROG, GCOV_PROG, AFL_PROG, FILENAME, TIMEOUT, EXAMPLE_TRAIN_PATH, EXAMPLE_TEST_PATH, ORACLE_MODE, NUM_WORKERS, CACHE_BYTES, CACHE_PATH, VERDICT_MODE, USE_ADAPTIVE_TIMEOUT ? ADAPTIVE_TIMEOUT : null);
 	
 	public static final String GRAMMAR_PATH = "data/grammars";
 	public static final String AFL_QUEUE_PATH = "data/afl-queue";
@@ -28,6 +28,7 @@ import glade.constants.program.FFJSData;
 import glade.constants.program.FlexData;
 import glade.constants.program.GraphvizData;
 import glade.constants.program.GrepData;
+import glade.constants.program.JvmData;
 import glade.constants.program.PythonData;
 import glade.constants.program.RubyData;
 import glade.constants.program.SedData;
@@ -59,15 +60,15 @@ import glade.program.ProgramDataUtils.ProgramData;
 import glade.program.ProgramDataUtils.ProgramExamples;
 import glade.util.CharacterUtils;
 import glade.util.IteratorUtils.BoundedIterable;
-import glade.util.IteratorUtils.FilteredIterable;
 import glade.util.IteratorUtils.MultiMutationSampler;
 import glade.util.IteratorUtils.MultiRandomSampler;
+import glade.util.IteratorUtils.OracleFilteredIterable;
 import glade.util.IteratorUtils.SampleIterable;
 import glade.util.IteratorUtils.Sampler;
 import glade.util.OracleUtils.DiscriminativeOracle;
-import glade.util.OracleUtils.DiscriminativeOracleFilter;
 import glade.util.RandomUtils.RandomExtra;
 import glade.util.Utils.Callback;
+import glade.util.Utils.ConstantFilter;
 import glade.util.Utils.Filter;
 
 public class Settings {
@@ -89,11 +90,17 @@ public class Settings {
 		public final int maxLength;
 		public final boolean ignoreErrors;
 		public final boolean useCharacterClasses;
-		public LearnerSettings(int numSamples, int maxLength, boolean ignoreErrors, boolean useCharacterClasses) {
+		public final boolean minimizeSeeds;
+		public final boolean clusterSeeds;
+		public final int numThreads;
+		public LearnerSettings(int numSamples, int maxLength, boolean ignoreErrors, boolean useCharacterClasses, boolean minimizeSeeds, boolean clusterSeeds, int numThreads) {
 			this.numSamples = numSamples;
 			this.maxLength = maxLength;
 			this.ignoreErrors = ignoreErrors;
 			this.useCharacterClasses = useCharacterClasses;
+			this.minimizeSeeds = minimizeSeeds;
+			this.clusterSeeds = clusterSeeds;
+			this.numThreads = numThreads;
 		}
 	}
 	
@@ -102,11 +109,11 @@ public class Settings {
 		public OracleLearner<?> getOracleLearner(ProgramSettings program, LearnerSettings learner, FuzzSettings fuzz, Random random) {
 			switch(this) {
 			case SYNTHESIS:
-				return new GrammarSynthesisOracleLearner(fuzz.sample, random);
+				return new GrammarSynthesisOracleLearner(fuzz.sample, learner.clusterSeeds, random);
 			case REGULAR_SYNTHESIS:
 				return new RegularGrammarSynthesisOracleLearner(fuzz.sample, random);
 			case NO_CONSTANT_SYNTHESIS:
-				return new NoConstantGrammarSynthesisOracleLearner(fuzz.sample, random);
+				return new NoConstantGrammarSynthesisOracleLearner(fuzz.sample, learner.clusterSeeds, random);
 			case RPNI:
 				return new DiscriminativeAutomatonOracleLearner(new RPNILearner(), new RandomExtra(random).nextUniformLengthStrings(learner.maxLength, learner.numSamples), random);
 			case LSTAR:
@@ -232,7 +239,7 @@ public class Settings {
 	}
 	
 	public static enum Program {
-		XML, GREP, SED, BISON, FLEX, PYTHON, PYTHON_WRAPPED, FFJS, FFJS_WRAPPED, RUBY, RUBY_WRAPPED, GRAPHVIZ;
+		XML, GREP, SED, BISON, FLEX, PYTHON, PYTHON_WRAPPED, FFJS, FFJS_WRAPPED, RUBY, RUBY_WRAPPED, GRAPHVIZ, JVM;
 		public ProgramSettings getSettings() {
 			switch(this) {
 			case XML:
@@ -259,6 +266,8 @@ public class Settings {
 				return new ProgramSettings(BisonData.BISON_DATA, BisonData.BISON_EXAMPLES, BisonData.BISON_NAME, BisonData.BISON_FILTER);
 			case GRAPHVIZ:
 				return new ProgramSettings(GraphvizData.GRAPHVIZ_DATA, GraphvizData.GRAPHVIZ_EXAMPLES, GraphvizData.GRAPHVIZ_NAME, GraphvizData.GRAPHVIZ_FILTER);
+			case JVM:
+				return new ProgramSettings(JvmData.JVM_DATA, JvmData.JVM_EXAMPLES, JvmData.JVM_NAME, JvmData.JVM_FILTER);
 			default:
 				throw new RuntimeException();
 			}
@@ -268,10 +277,10 @@ public class Settings {
 	public static enum Processor {
 		NONE, BOUND, FILTER, FILTER_ASCII, BOUND_THEN_FILTER, FILTER_THEN_BOUND, BOUND_THEN_FILTER_ASCII, FILTER_ASCII_THEN_BOUND;
 		private static Iterable<String> filterAscii(DiscriminativeOracle oracle, Iterable<String> samples, Callback filterCallback) {
-			return new FilteredIterable<String>(samples, new Filter<String>() { public boolean filter(String s) { return oracle.query(s) && CharacterUtils.isAsciiOrNewlineOrTabString(s); }}, filterCallback);
+			return new OracleFilteredIterable(samples, oracle, new Filter<String>() { public boolean filter(String s) { return CharacterUtils.isAsciiOrNewlineOrTabString(s); }}, filterCallback);
 		}
 		private static Iterable<String> filter(DiscriminativeOracle oracle, Iterable<String> samples, Callback filterCallback) {
-			return new FilteredIterable<String>(samples, new DiscriminativeOracleFilter(oracle), filterCallback);
+			return new OracleFilteredIterable(samples, oracle, new ConstantFilter<String>(true), filterCallback);
 		}
 		private static Iterable<String> bound(Iterable<String> samples, int numIters) {
 			return new BoundedIterable<String>(samples, numIters);
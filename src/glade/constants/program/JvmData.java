@@ -0,0 +1,39 @@
+/*  Copyright 2015-2017 Stanford University                                                                                                                                       
+ *                                                                                                                                                                               
+ *  Licensed under the Apache License, Version 2.0 (the "License");                                                                                                               
+ *  you may not use this file except in compliance with the License.                                                                                                              
+ *  You may obtain a copy of the License at                                                                                                                                       
+                                                                                                                                                                                
+ *      http://www.apache.org/licenses/LICENSE-2.0                                                                                                                                
+                                                                                                                                                                                
+ *  Unless required by applicable law or agreed to in writing, software                                                                                                           
+ *  distributed under the License is distributed on an "AS IS" BASIS,                                                                                                             
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.                                                                                                      
+ *  See the License for the specific language governing permissions and                                                                                                           
+ *  limitations under the License. 
+ */
+
+package glade.constants.program;
+
+import glade.constants.Files;
+import glade.program.ProgramDataUtils.JvmProgramData;
+import glade.program.ProgramDataUtils.MultiFileProgramExamples;
+import glade.program.ProgramDataUtils.ProgramData;
+import glade.program.ProgramDataUtils.ProgramExamples;
+import glade.util.OracleUtils.IdentityWrapper;
+import glade.util.Utils.ConstantFilter;
+import glade.util.Utils.Filter;
+
+public class JvmData {
+	public static final String JVM_CLASSPATH = "jvm/target.jar";
+	public static final String JVM_CLASS = "Target";
+	public static final String JVM_METHOD = "parse";
+	public static final int JVM_NUM_THREADS = 1;
+	public static final String JVM_EXTENSION = ".txt";
+	public static final String JVM_EMPTY = "";
+	
+	public static final String JVM_NAME = "jvm";
+	public static final ProgramData JVM_DATA = new JvmProgramData(Files.FILE_PARAMETERS, JVM_CLASSPATH, JVM_CLASS, JVM_METHOD, JVM_NUM_THREADS);
+	public static final ProgramExamples JVM_EXAMPLES = new MultiFileProgramExamples(Files.FILE_PARAMETERS, JVM_NAME, JVM_EXTENSION, JVM_EMPTY, new IdentityWrapper());
+	public static final Filter<String> JVM_FILTER = new ConstantFilter<String>(true);
+}
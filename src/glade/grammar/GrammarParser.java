@@ -0,0 +1,266 @@
+/*  Copyright 2015-2017 Stanford University                                                                                                                                       
+ *                                                                                                                                                                               
+ *  Licensed under the Apache License, Version 2.0 (the "License");                                                                                                               
+ *  you may not use this file except in compliance with the License.                                                                                                              
+ *  You may obtain a copy of the License at                                                                                                                                       
+                                                                                                                                                                                
+ *      http://www.apache.org/licenses/LICENSE-2.0                                                                                                                                
+                                                                                                                                                                                
+ *  Unless required by applicable law or agreed to in writing, software                                                                                                           
+ *  distributed under the License is distributed on an "AS IS" BASIS,                                                                                                             
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.                                                                                                      
+ *  See the License for the specific language governing permissions and                                                                                                           
+ *  limitations under the License. 
+ */
+
+package glade.grammar;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import glade.grammar.GrammarUtils.ConstantNode;
+import glade.grammar.GrammarUtils.MultiAlternationNode;
+import glade.grammar.GrammarUtils.MultiConstantNode;
+import glade.grammar.GrammarUtils.Node;
+import glade.grammar.GrammarUtils.NodeMerges;
+import glade.grammar.GrammarUtils.RepetitionNode;
+import glade.grammar.ParseTreeUtils.ParseTreeConstantNode;
+import glade.grammar.ParseTreeUtils.ParseTreeMultiAlternationNode;
+import glade.grammar.ParseTreeUtils.ParseTreeMultiConstantNode;
+import glade.grammar.ParseTreeUtils.ParseTreeNode;
+import glade.grammar.ParseTreeUtils.ParseTreeRepetitionNode;
+import glade.util.Utils.Pair;
+
+// an Earley parser over the nodes of a grammar; each set of merged nodes is one nonterminal, which can be
+// derived using the structure of any of its members
+public class GrammarParser {
+	// the right-hand side holds nonterminals (>= 0) and terminals (-1 - index into the terminals)
+	private static class Rule {
+		private final int index;
+		private final int target;
+		private final int[] rhs;
+		private final Node node; // the node whose structure this rule follows, or null for repetition lists
+		private Rule(int index, int target, int[] rhs, Node node) {
+			this.index = index;
+			this.target = target;
+			this.rhs = rhs;
+			this.node = node;
+		}
+	}
+	
+	// items only point back to items created before them, so following the pointers always terminates
+	private static class Item {
+		private final Rule rule;
+		private final int dot;
+		private final int origin;
+		private final int end;
+		private final Item prev; // the item before the last symbol was matched
+		private final Item child; // the completed item matching the last symbol, or null for a terminal
+		private Item(Rule rule, int dot, int origin, int end, Item prev, Item child) {
+			this.rule = rule;
+			this.dot = dot;
+			this.origin = origin;
+			this.end = end;
+			this.prev = prev;
+			this.child = child;
+		}
+		private boolean isComplete() {
+			return this.dot == this.rule.rhs.length;
+		}
+		private Item advance(int end, Item child) {
+			return new Item(this.rule, this.dot+1, this.origin, end, this, child);
+		}
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof Item)) {
+				return false;
+			}
+			Item other = (Item)obj;
+			return this.rule == other.rule && this.dot == other.dot && this.origin == other.origin;
+		}
+		@Override
+		public int hashCode() {
+			return (31*this.rule.index + this.dot)*31 + this.origin;
+		}
+	}
+	
+	private static class ItemSet {
+		private final List<Item> items = new ArrayList<Item>();
+		private final Set<Item> seen = new HashSet<Item>();
+		private final List<Item>[] waiting; // by symbol; a symbol is predicted when the first item waits on it
+		private final Item[] emptyCompleted; // by symbol
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		private ItemSet(int numSymbols) {
+			this.waiting = new List[numSymbols];
+			this.emptyCompleted = new Item[numSymbols];
+		}
+		private void add(Item item) {
+			if(this.seen.add(item)) {
+				this.items.add(item);
+			}
+		}
+	}
+	
+	private final List<Rule> rules = new ArrayList<Rule>();
+	private final List<List<Rule>> rulesByTarget = new ArrayList<List<Rule>>();
+	private final List<char[]> terminals = new ArrayList<char[]>();
+	private final int startSymbol;
+	
+	public GrammarParser(Pair<Node,NodeMerges> grammar) {
+		Map<Node,Node> representatives = GrammarUtils.getPartition(grammar);
+		Map<Node,Integer> symbols = new HashMap<Node,Integer>();
+		for(Node representative : new HashSet<Node>(representatives.values())) {
+			symbols.put(representative, this.rulesByTarget.size());
+			this.rulesByTarget.add(new ArrayList<Rule>());
+		}
+		for(Node node : GrammarUtils.getAllNodes(grammar.getX())) {
+			int symbol = symbols.get(representatives.get(node));
+			if(node instanceof RepetitionNode) {
+				RepetitionNode repNode = (RepetitionNode)node;
+				int listSymbol = this.rulesByTarget.size();
+				this.rulesByTarget.add(new ArrayList<Rule>());
+				this.addRule(listSymbol, new int[]{}, null);
+				this.addRule(listSymbol, new int[]{listSymbol, symbols.get(representatives.get(repNode.rep))}, null);
+				this.addRule(symbol, new int[]{symbols.get(representatives.get(repNode.start)), listSymbol, symbols.get(representatives.get(repNode.end))}, node);
+			} else if(node instanceof MultiConstantNode) {
+				MultiConstantNode mconstNode = (MultiConstantNode)node;
+				int[] rhs = new int[mconstNode.characterOptions.size()];
+				for(int i=0; i<rhs.length; i++) {
+					char[] terminal = new char[mconstNode.characterOptions.size(i)];
+					for(int j=0; j<terminal.length; j++) {
+						terminal[j] = mconstNode.characterOptions.get(i, j);
+					}
+					rhs[i] = this.addTerminal(terminal);
+				}
+				this.addRule(symbol, rhs, node);
+			} else if(node instanceof ConstantNode) {
+				String example = node.getData().example;
+				int[] rhs = new int[example.length()];
+				for(int i=0; i<rhs.length; i++) {
+					rhs[i] = this.addTerminal(new char[]{example.charAt(i)});
+				}
+				this.addRule(symbol, rhs, node);
+			} else if(node instanceof MultiAlternationNode) {
+				for(Node child : node.getChildren()) {
+					this.addRule(symbol, new int[]{symbols.get(representatives.get(child))}, node);
+				}
+			} else {
+				throw new RuntimeException("Invalid node type!");
+			}
+		}
+		this.startSymbol = symbols.get(representatives.get(grammar.getX()));
+	}
+	
+	private void addRule(int target, int[] rhs, Node node) {
+		Rule rule = new Rule(this.rules.size(), target, rhs, node);
+		this.rules.add(rule);
+		this.rulesByTarget.get(target).add(rule);
+	}
+	
+	private int addTerminal(char[] terminal) {
+		this.terminals.add(terminal);
+		return -this.terminals.size();
+	}
+	
+	private boolean matches(int terminal, char c) {
+		for(char option : this.terminals.get(-1-terminal)) {
+			if(option == c) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	// returns a parse tree of the example, or null if the grammar does not accept it
+	public ParseTreeNode parse(String example) {
+		int numSymbols = this.rulesByTarget.size();
+		ItemSet[] sets = new ItemSet[example.length()+1];
+		sets[0] = new ItemSet(numSymbols);
+		for(Rule rule : this.rulesByTarget.get(this.startSymbol)) {
+			sets[0].add(new Item(rule, 0, 0, 0, null, null));
+		}
+		for(int j=0; j<=example.length(); j++) {
+			ItemSet set = sets[j];
+			if(set == null) {
+				return null;
+			}
+			for(int i=0; i<set.items.size(); i++) {
+				Item item = set.items.get(i);
+				if(item.isComplete()) {
+					// completion; empty items also advance items that start waiting later, when those are processed
+					List<Item> waiting = sets[item.origin].waiting[item.rule.target];
+					if(waiting != null) {
+						for(int k=0; k<waiting.size(); k++) {
+							set.add(waiting.get(k).advance(j, item));
+						}
+					}
+					if(item.origin == j && set.emptyCompleted[item.rule.target] == null) {
+						set.emptyCompleted[item.rule.target] = item;
+					}
+					continue;
+				}
+				int next = item.rule.rhs[item.dot];
+				if(next >= 0) {
+					// prediction
+					List<Item> waiting = set.waiting[next];
+					if(waiting == null) {
+						waiting = new ArrayList<Item>();
+						set.waiting[next] = waiting;
+						for(Rule rule : this.rulesByTarget.get(next)) {
+							set.add(new Item(rule, 0, j, j, null, null));
+						}
+					}
+					waiting.add(item);
+					Item empty = set.emptyCompleted[next];
+					if(empty != null) {
+						set.add(item.advance(j, empty));
+					}
+				} else if(j < example.length() && this.matches(next, example.charAt(j))) {
+					// scanning
+					if(sets[j+1] == null) {
+						sets[j+1] = new ItemSet(numSymbols);
+					}
+					sets[j+1].add(item.advance(j+1, null));
+				}
+			}
+		}
+		for(Item item : sets[example.length()].items) {
+			if(item.isComplete() && item.origin == 0 && item.rule.target == this.startSymbol) {
+				return this.getParseTree(example, item);
+			}
+		}
+		return null;
+	}
+	
+	private static List<Item> getChildren(Item item) {
+		List<Item> children = new ArrayList<Item>();
+		for(Item cur=item; cur.dot>0; cur=cur.prev) {
+			children.add(0, cur.child);
+		}
+		return children;
+	}
+	
+	private ParseTreeNode getParseTree(String example, Item item) {
+		Node node = item.rule.node;
+		if(node instanceof RepetitionNode) {
+			List<Item> children = getChildren(item);
+			List<ParseTreeNode> rep = new ArrayList<ParseTreeNode>();
+			for(Item list=children.get(1); list.rule.rhs.length != 0; list=list.prev.child) {
+				rep.add(0, this.getParseTree(example, list.child));
+			}
+			return new ParseTreeRepetitionNode((RepetitionNode)node, this.getParseTree(example, children.get(0)), rep, this.getParseTree(example, children.get(2)));
+		} else if(node instanceof MultiAlternationNode) {
+			return new ParseTreeMultiAlternationNode((MultiAlternationNode)node, this.getParseTree(example, item.child));
+		} else if(node instanceof MultiConstantNode) {
+			return new ParseTreeMultiConstantNode((MultiConstantNode)node, example.substring(item.origin, item.end));
+		} else if(node instanceof ConstantNode) {
+			return new ParseTreeConstantNode((ConstantNode)node, example.substring(item.origin, item.end));
+		} else {
+			throw new RuntimeException("Invalid node type!");
+		}
+	}
+}
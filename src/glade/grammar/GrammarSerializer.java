@@ -21,7 +21,6 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import glade.grammar.GrammarUtils.AlternationNode;
 import glade.grammar.GrammarUtils.ConstantNode;
@@ -62,10 +61,10 @@ public class GrammarSerializer {
 	
 	public static void serialize(NodeData data, DataOutputStream dos) throws IOException {
 		serialize(data.example, dos);
-		serialize(data.context.pre, dos);
-		serialize(data.context.post, dos);
-		serialize(data.context.extraPre, dos);
-		serialize(data.context.extraPost, dos);
+		serialize(data.context.getPre(), dos);
+		serialize(data.context.getPost(), dos);
+		serialize(data.context.getExtraPre(), dos);
+		serialize(data.context.getExtraPost(), dos);
 	}
 	
 	public static NodeData deserializeNodeData(DataInputStream dis) throws IOException {
@@ -109,15 +108,13 @@ public class GrammarSerializer {
 				dos.writeInt(4); // 3/1
 				dos.writeInt(mconstNode.characterOptions.size()); // 3/2
 				for(int i=0; i<mconstNode.characterOptions.size(); i++) {
-					Set<Character> characterOption = mconstNode.characterOptions.get(i);
-					dos.writeInt(characterOption.size()); // 3/3
-					for(char c : characterOption) {
-						dos.writeChar(c); // 3/4
+					dos.writeInt(mconstNode.characterOptions.size(i)); // 3/3
+					for(int j=0; j<mconstNode.characterOptions.size(i); j++) {
+						dos.writeChar(mconstNode.characterOptions.get(i, j)); // 3/4
 					}
-					Set<Character> characterChecks = mconstNode.characterChecks.get(i);
-					dos.writeInt(characterChecks.size()); // 3/5
-					for(char c : characterChecks) {
-						dos.writeChar(c); // 3/6
+					dos.writeInt(mconstNode.characterChecks.size(i)); // 3/5
+					for(int j=0; j<mconstNode.characterChecks.size(i); j++) {
+						dos.writeChar(mconstNode.characterChecks.get(i, j)); // 3/6
 					}
 				}
 			} else {
@@ -234,7 +231,7 @@ public class GrammarSerializer {
 					this.nodes.set(index, new RepetitionNode(repNodeSerialization.getData(), this.deserialize(repNodeSerialization.start), this.deserialize(repNodeSerialization.rep), this.deserialize(repNodeSerialization.end)));
 				} else if(nodeSerialization instanceof MultiConstantNodeSerialization) {
 					MultiConstantNodeSerialization mconstNodeSerialization = (MultiConstantNodeSerialization)nodeSerialization;
-					return new MultiConstantNode(mconstNodeSerialization.getData(), mconstNodeSerialization.characterOptions, mconstNodeSerialization.characterChecks);
+					this.nodes.set(index, new MultiConstantNode(mconstNodeSerialization.getData(), mconstNodeSerialization.characterOptions, mconstNodeSerialization.characterChecks));
 				} else {
 					throw new RuntimeException("Unrecognized node type!");
 				}
@@ -56,8 +56,8 @@ public class GrammarToNormalGrammar {
 			Object[] characterSymbols = new Object[mconstNode.characterOptions.size()];
 			for(int i=0; i<mconstNode.characterOptions.size(); i++) {
 				characterSymbols[i] = symbols.get();
-				for(char c : mconstNode.characterOptions.get(i)) {
-					productions.add(new MultiProduction(characterSymbols[i], new Object[]{c}));
+				for(int j=0; j<mconstNode.characterOptions.size(i); j++) {
+					productions.add(new MultiProduction(characterSymbols[i], new Object[]{mconstNode.characterOptions.get(i, j)}));
 				}
 			}
 			productions.add(new MultiProduction(symbol, characterSymbols));
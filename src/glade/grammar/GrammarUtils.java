@@ -16,9 +16,9 @@
 package glade.grammar;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -27,25 +27,129 @@ import glade.util.Utils.MultivalueMap;
 import glade.util.Utils.Pair;
 
 public class GrammarUtils {
+	// a context only stores what it adds to its parent's, usually as offsets into the parent's example, so nested
+	// contexts share their prefixes and suffixes instead of copying them; the strings are rendered when needed
 	public static final class Context {
-		public final String pre;
-		public final String post;
-		public final String extraPre;
-		public final String extraPost;
+		private static final class Slice {
+			private final String source;
+			private final int begin;
+			private final int end;
+			private Slice(String source, int begin, int end) {
+				this.source = source;
+				this.begin = begin;
+				this.end = end;
+			}
+			private Slice(String source) {
+				this(source, 0, source.length());
+			}
+		}
+		
+		private static final int PRE = 0;
+		private static final int POST = 1;
+		private static final int EXTRA_PRE = 2;
+		private static final int EXTRA_POST = 3;
+		
+		private static final ThreadLocal<StringBuilder> buffer = new ThreadLocal<StringBuilder>() {
+			protected StringBuilder initialValue() {
+				return new StringBuilder();
+			}
+		};
+		
+		private final Context parent;
+		private final Slice[] slices;
+		private final int[] lengths = new int[4];
+		private volatile Boolean useExtra = null;
+		
 		public Context() {
-			this.pre = "";
-			this.post = "";
-			this.extraPre = "";
-			this.extraPost = "";
+			this.parent = null;
+			this.slices = new Slice[]{new Slice(""), new Slice(""), new Slice(""), new Slice("")};
 		}
+		
 		public Context(Context parent, String pre, String post, String extraPre, String extraPost) {
-			this.pre = parent.pre + pre;
-			this.post = post + parent.post;
-			this.extraPre = parent.extraPre + extraPre;
-			this.extraPost = extraPost + parent.extraPost;
+			this(parent, new Slice[]{new Slice(pre), new Slice(post), new Slice(extraPre), new Slice(extraPost)});
+		}
+		
+		// pre and extraPre are the prefixes of source that end at preEnd and extraPreEnd, and post and extraPost
+		// are the suffixes of source that start at postStart and extraPostStart
+		public Context(Context parent, String source, int preEnd, int postStart, int extraPreEnd, int extraPostStart) {
+			this(parent, new Slice[]{new Slice(source, 0, preEnd), new Slice(source, postStart, source.length()), new Slice(source, 0, extraPreEnd), new Slice(source, extraPostStart, source.length())});
+		}
+		
+		private Context(Context parent, Slice[] slices) {
+			this.parent = parent;
+			this.slices = slices;
+			for(int i=0; i<4; i++) {
+				this.lengths[i] = parent.lengths[i] + slices[i].end - slices[i].begin;
+			}
+		}
+		
+		// prefixes are rendered from the root down, suffixes from this context up
+		private void append(StringBuilder sb, int part) {
+			int depth = 0;
+			for(Context cur=this; cur != null; cur=cur.parent) {
+				depth++;
+			}
+			Context[] chain = new Context[depth];
+			int index = part == PRE || part == EXTRA_PRE ? depth-1 : 0;
+			int step = part == PRE || part == EXTRA_PRE ? -1 : 1;
+			for(Context cur=this; cur != null; cur=cur.parent) {
+				chain[index] = cur;
+				index += step;
+			}
+			for(Context cur : chain) {
+				Slice slice = cur.slices[part];
+				sb.append(slice.source, slice.begin, slice.end);
+			}
+		}
+		
+		private String render(int part) {
+			StringBuilder sb = new StringBuilder(this.lengths[part]);
+			this.append(sb, part);
+			return sb.toString();
+		}
+		
+		public String getPre() {
+			return this.render(PRE);
+		}
+		
+		public String getPost() {
+			return this.render(POST);
+		}
+		
+		public String getExtraPre() {
+			return this.render(EXTRA_PRE);
+		}
+		
+		public String getExtraPost() {
+			return this.render(EXTRA_POST);
+		}
+		
+		private String getQuery(String example, int pre, int post) {
+			StringBuilder sb = buffer.get();
+			sb.setLength(0);
+			sb.ensureCapacity(this.lengths[pre] + example.length() + this.lengths[post]);
+			this.append(sb, pre);
+			sb.append(example);
+			this.append(sb, post);
+			return sb.toString();
+		}
+		
+		// pre + example + post
+		public String getQuery(String example) {
+			return this.getQuery(example, PRE, POST);
 		}
+		
+		// extraPre + example + extraPost
+		public String getExtraQuery(String example) {
+			return this.getQuery(example, EXTRA_PRE, EXTRA_POST);
+		}
+		
 		public boolean useExtra() {
-			return !this.pre.equals(this.extraPre) || !this.post.equals(this.extraPost);
+			if(this.useExtra == null) {
+				this.useExtra = this.lengths[PRE] != this.lengths[EXTRA_PRE] || this.lengths[POST] != this.lengths[EXTRA_POST]
+						|| !this.getPre().equals(this.getExtraPre()) || !this.getPost().equals(this.getExtraPost());
+			}
+			return this.useExtra;
 		}
 	}
 	
@@ -79,21 +183,68 @@ public class GrammarUtils {
 		}
 	}
 	
+	// a set of characters for each position, kept in insertion order without duplicates; the characters of all
+	// positions are stored back to back in one array
+	public static final class CharacterSets {
+		private final char[] characters;
+		private final int[] offsets;
+		public CharacterSets(List<List<Character>> sets) {
+			int total = 0;
+			for(List<Character> set : sets) {
+				total += set.size();
+			}
+			char[] characters = new char[total];
+			this.offsets = new int[sets.size()+1];
+			int end = 0;
+			for(int i=0; i<sets.size(); i++) {
+				this.offsets[i] = end;
+				for(char c : sets.get(i)) {
+					if(indexOf(characters, this.offsets[i], end, c) == -1) {
+						characters[end++] = c;
+					}
+				}
+			}
+			this.offsets[sets.size()] = end;
+			this.characters = end == total ? characters : Arrays.copyOf(characters, end);
+		}
+		private static int indexOf(char[] characters, int start, int end, char c) {
+			for(int i=start; i<end; i++) {
+				if(characters[i] == c) {
+					return i - start;
+				}
+			}
+			return -1;
+		}
+		// number of positions
+		public int size() {
+			return this.offsets.length - 1;
+		}
+		// number of characters at the given position
+		public int size(int position) {
+			return this.offsets[position+1] - this.offsets[position];
+		}
+		public char get(int position, int index) {
+			return this.characters[this.offsets[position] + index];
+		}
+		public int indexOf(int position, char c) {
+			return indexOf(this.characters, this.offsets[position], this.offsets[position+1], c);
+		}
+		public boolean contains(int position, char c) {
+			return this.indexOf(position, c) != -1;
+		}
+	}
+	
 	public static class MultiConstantNode implements Node {
 		private final NodeData data;
-		public final List<Set<Character>> characterOptions = new ArrayList<Set<Character>>();
-		public final List<Set<Character>> characterChecks = new ArrayList<Set<Character>>();
+		public final CharacterSets characterOptions;
+		public final CharacterSets characterChecks;
 		public MultiConstantNode(NodeData data, List<List<Character>> characterOptions, List<List<Character>> characterChecks) {
 			this.data = data;
 			if(characterOptions.size() != characterChecks.size()) {
 				throw new RuntimeException("Invalid characters!");
 			}
-			for(List<Character> characters : characterOptions) {
-				this.characterOptions.add(new LinkedHashSet<Character>(characters));
-			}
-			for(List<Character>characters : characterChecks) {
-				this.characterChecks.add(new LinkedHashSet<Character>(characters));
-			}
+			this.characterOptions = new CharacterSets(characterOptions);
+			this.characterChecks = new CharacterSets(characterChecks);
 		}
 		public List<Node> getChildren() {
 			return new ArrayList<Node>();
@@ -103,10 +254,10 @@ public class GrammarUtils {
 		}
 		public String toString() {
 			StringBuilder sb = new StringBuilder();
-			for(Set<Character> characterOption : this.characterOptions) {
+			for(int i=0; i<this.characterOptions.size(); i++) {
 				sb.append("(");
-				for(char character : characterOption) {
-					sb.append(character).append("+");
+				for(int j=0; j<this.characterOptions.size(i); j++) {
+					sb.append(this.characterOptions.get(i, j)).append("+");
 				}
 				sb.replace(sb.length()-1, sb.length(), ")");
 			}
@@ -16,13 +16,16 @@
 package glade.grammar;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import glade.constants.Files;
+import glade.util.ParallelUtils;
 import glade.util.OracleUtils.DiscriminativeOracle;
 import glade.util.Utils.MultivalueMap;
 
@@ -193,6 +196,36 @@ public class MultiGrammarUtils {
 			}
 			return binary;
 		}
+		public CompiledNormalGrammar compile() {
+			List<Integer> characters = new ArrayList<Integer>();
+			for(char c : this.characters.keySet()) {
+				characters.add((int)c);
+				characters.add(this.characters.get(c));
+			}
+			List<Integer> productions = new ArrayList<Integer>();
+			for(int symbol : this.emptyProductionsByTarget.keySet()) {
+				for(EmptyProduction emptyProduction : this.emptyProductionsByTarget.get(symbol)) {
+					productions.add(emptyProduction.target);
+					productions.add(-1);
+					productions.add(-1);
+				}
+			}
+			for(int symbol : this.unaryProductionsByTarget.keySet()) {
+				for(UnaryProduction unaryProduction : this.unaryProductionsByTarget.get(symbol)) {
+					productions.add(unaryProduction.target);
+					productions.add(unaryProduction.input);
+					productions.add(-1);
+				}
+			}
+			for(int symbol : this.binaryProductionsByTarget.keySet()) {
+				for(BinaryProduction binaryProduction : this.binaryProductionsByTarget.get(symbol)) {
+					productions.add(binaryProduction.target);
+					productions.add(binaryProduction.firstInput);
+					productions.add(binaryProduction.secondInput);
+				}
+			}
+			return new CompiledNormalGrammar(this.numSymbols, this.stopSymbol, toArray(characters), toArray(productions));
+		}
 		public NormalGrammar(List<Integer> binary) {
 			int cur = 0;
 			this.numSymbols = binary.get(cur++); // 0
@@ -226,106 +259,476 @@ public class MultiGrammarUtils {
 		}
 	}
 	
-	private static class Edge {
-		private final int start;
-		private final int end;
-		private final int symbol;
-		private Edge(int start, int end, int symbol) {
-			this.start = start;
-			this.end = end;
-			this.symbol = symbol;
+	private static int[] toArray(List<Integer> list) {
+		int[] array = new int[list.size()];
+		for(int i=0; i<array.length; i++) {
+			array[i] = list.get(i);
 		}
-		@Override
-		public int hashCode() {
-			return this.start + 37*(this.end + 37*this.symbol);
+		return array;
+	}
+	
+	// a frozen NormalGrammar: the productions are in compressed sparse rows indexed by input symbol (each row is a
+	// run of (target, other input) pairs between offsets[symbol] and offsets[symbol+1]), and ascii characters map
+	// to symbols through a table
+	public static class CompiledNormalGrammar {
+		public final int numSymbols;
+		public final int stopSymbol;
+		private final int[] asciiSymbols = new int[128];
+		private final char[] otherCharacters;
+		private final int[] otherSymbols;
+		public final int[] binaryByFirstInputOffsets;
+		public final int[] binaryByFirstInput;
+		public final int[] binaryBySecondInputOffsets;
+		public final int[] binaryBySecondInput;
+		public final int[] unaryByInputOffsets;
+		public final int[] unaryByInput;
+		public final int[] emptyTargets;
+		
+		// characters are (character, symbol) pairs, and productions are (target, first input, second input)
+		// triples, with -1 for missing inputs
+		private CompiledNormalGrammar(int numSymbols, int stopSymbol, int[] characters, int[] productions) {
+			this.numSymbols = numSymbols;
+			this.stopSymbol = stopSymbol;
+			Arrays.fill(this.asciiSymbols, -1);
+			int numOther = 0;
+			for(int i=0; i<characters.length; i+=2) {
+				if(characters[i] >= 128) {
+					numOther++;
+				}
+			}
+			// non-ascii characters are sorted for binary search
+			long[] other = new long[numOther];
+			numOther = 0;
+			for(int i=0; i<characters.length; i+=2) {
+				if(characters[i] < 128) {
+					this.asciiSymbols[characters[i]] = characters[i+1];
+				} else {
+					other[numOther++] = ((long)characters[i] << 32) | characters[i+1];
+				}
+			}
+			Arrays.sort(other);
+			this.otherCharacters = new char[other.length];
+			this.otherSymbols = new int[other.length];
+			for(int i=0; i<other.length; i++) {
+				this.otherCharacters[i] = (char)(other[i] >>> 32);
+				this.otherSymbols[i] = (int)other[i];
+			}
+			this.binaryByFirstInputOffsets = new int[numSymbols+1];
+			this.binaryBySecondInputOffsets = new int[numSymbols+1];
+			this.unaryByInputOffsets = new int[numSymbols+1];
+			int numEmpty = 0;
+			for(int i=0; i<productions.length; i+=3) {
+				if(productions[i+1] == -1) {
+					numEmpty++;
+				} else if(productions[i+2] == -1) {
+					this.unaryByInputOffsets[productions[i+1]+1]++;
+				} else {
+					this.binaryByFirstInputOffsets[productions[i+1]+1]++;
+					this.binaryBySecondInputOffsets[productions[i+2]+1]++;
+				}
+			}
+			for(int symbol=0; symbol<numSymbols; symbol++) {
+				this.binaryByFirstInputOffsets[symbol+1] += this.binaryByFirstInputOffsets[symbol];
+				this.binaryBySecondInputOffsets[symbol+1] += this.binaryBySecondInputOffsets[symbol];
+				this.unaryByInputOffsets[symbol+1] += this.unaryByInputOffsets[symbol];
+			}
+			this.binaryByFirstInput = new int[2*this.binaryByFirstInputOffsets[numSymbols]];
+			this.binaryBySecondInput = new int[2*this.binaryBySecondInputOffsets[numSymbols]];
+			this.unaryByInput = new int[this.unaryByInputOffsets[numSymbols]];
+			int[] emptyTargets = new int[numEmpty];
+			int[] firstCur = Arrays.copyOf(this.binaryByFirstInputOffsets, numSymbols);
+			int[] secondCur = Arrays.copyOf(this.binaryBySecondInputOffsets, numSymbols);
+			int[] unaryCur = Arrays.copyOf(this.unaryByInputOffsets, numSymbols);
+			numEmpty = 0;
+			for(int i=0; i<productions.length; i+=3) {
+				int target = productions[i];
+				int firstInput = productions[i+1];
+				int secondInput = productions[i+2];
+				if(firstInput == -1) {
+					emptyTargets[numEmpty++] = target;
+				} else if(secondInput == -1) {
+					this.unaryByInput[unaryCur[firstInput]++] = target;
+				} else {
+					int first = 2*(firstCur[firstInput]++);
+					this.binaryByFirstInput[first] = target;
+					this.binaryByFirstInput[first+1] = secondInput;
+					int second = 2*(secondCur[secondInput]++);
+					this.binaryBySecondInput[second] = target;
+					this.binaryBySecondInput[second+1] = firstInput;
+				}
+			}
+			// an empty production is only needed once per target
+			Arrays.sort(emptyTargets);
+			int numDistinct = 0;
+			for(int i=0; i<emptyTargets.length; i++) {
+				if(i == 0 || emptyTargets[i] != emptyTargets[i-1]) {
+					emptyTargets[numDistinct++] = emptyTargets[i];
+				}
+			}
+			this.emptyTargets = Arrays.copyOf(emptyTargets, numDistinct);
 		}
-		@Override
-		public boolean equals(Object obj) {
-			Edge other = (Edge)obj;
-			return this.start == other.start && this.end == other.end && this.symbol == other.symbol;
+		
+		// loads the format of NormalGrammar.serialize directly
+		public CompiledNormalGrammar(List<Integer> binary) {
+			this(binary.get(0), binary.get(1), getSerializedCharacters(binary), getSerializedProductions(binary));
+		}
+		
+		private static int[] getSerializedCharacters(List<Integer> binary) {
+			int[] characters = new int[2*binary.get(2)];
+			for(int i=0; i<characters.length; i++) {
+				characters[i] = binary.get(3+i);
+			}
+			return characters;
+		}
+		
+		private static int[] getSerializedProductions(List<Integer> binary) {
+			int numSymbols = binary.get(0);
+			List<Integer> productions = new ArrayList<Integer>();
+			int cur = 3 + 2*binary.get(2);
+			for(int i=0; i<numSymbols; i++) {
+				int numEmpty = binary.get(cur++);
+				for(int j=0; j<numEmpty; j++) {
+					productions.add(binary.get(cur++));
+					productions.add(-1);
+					productions.add(-1);
+				}
+				int numUnary = binary.get(cur++);
+				for(int j=0; j<numUnary; j++) {
+					productions.add(binary.get(cur++));
+					productions.add(binary.get(cur++));
+					productions.add(-1);
+				}
+				int numBinary = binary.get(cur++);
+				for(int j=0; j<numBinary; j++) {
+					productions.add(binary.get(cur++));
+					productions.add(binary.get(cur++));
+					productions.add(binary.get(cur++));
+				}
+			}
+			return toArray(productions);
+		}
+		
+		// the symbol of a character, or -1 if it does not occur in the grammar
+		public int getSymbol(char c) {
+			if(c < 128) {
+				return this.asciiSymbols[c];
+			}
+			int index = Arrays.binarySearch(this.otherCharacters, c);
+			return index < 0 ? -1 : this.otherSymbols[index];
 		}
 	}
 	
-	public static class Solver {
-		private Set<Edge> edges;
-		private LinkedList<Edge> worklist;
-		private LinkedList<Edge>[][] outgoingEdges;
-		private LinkedList<Edge>[][] incomingEdges;
+	// the spans derived so far: for every (start, symbol) a bitset of ends and for every (end, symbol) a bitset of
+	// starts, allocated on first use, plus a queue of (start, end, symbol) triples still to be processed
+	private static class Chart {
+		private static final long ARRAY_HEADER_BYTES = 16;
+		private static final long REFERENCE_BYTES = 4;
+		private final int numSymbols;
+		private final int numWords;
+		private final long[][] ends;
+		private final long[][] starts;
+		private int[] agenda = new int[3*64];
+		private int head = 0;
+		private int tail = 0;
 		
-		@SuppressWarnings("unchecked")
-		public boolean solve(NormalGrammar grammar, char[] string) {
-			// setup
-			if(grammar.stopSymbol == -1) {
-				return false;
+		private Chart(int length, int numSymbols) {
+			this.numSymbols = numSymbols;
+			this.numWords = (length + 64)/64;
+			this.ends = new long[(length+1)*numSymbols][];
+			this.starts = new long[(length+1)*numSymbols][];
+		}
+		
+		private long[] getEnds(int start, int symbol) {
+			return this.ends[start*this.numSymbols + symbol];
+		}
+		
+		private long[] getStarts(int end, int symbol) {
+			return this.starts[end*this.numSymbols + symbol];
+		}
+		
+		private boolean contains(int start, int end, int symbol) {
+			long[] row = this.getEnds(start, symbol);
+			return row != null && (row[end >>> 6] & (1L << end)) != 0;
+		}
+		
+		private void add(int start, int end, int symbol) {
+			int endsIndex = start*this.numSymbols + symbol;
+			long[] endsRow = this.ends[endsIndex];
+			if(endsRow == null) {
+				endsRow = this.ends[endsIndex] = new long[this.numWords];
+			} else if((endsRow[end >>> 6] & (1L << end)) != 0) {
+				return;
+			}
+			endsRow[end >>> 6] |= 1L << end;
+			int startsIndex = end*this.numSymbols + symbol;
+			long[] startsRow = this.starts[startsIndex];
+			if(startsRow == null) {
+				startsRow = this.starts[startsIndex] = new long[this.numWords];
+			}
+			startsRow[start >>> 6] |= 1L << start;
+			if(this.tail + 3 > this.agenda.length) {
+				this.agenda = Arrays.copyOf(this.agenda, 2*this.agenda.length);
+			}
+			this.agenda[this.tail++] = start;
+			this.agenda[this.tail++] = end;
+			this.agenda[this.tail++] = symbol;
+		}
+		
+		// approximate heap footprint: the two row tables (references) plus the bitset rows that were allocated
+		private long getNumBytes() {
+			long rowBytes = ARRAY_HEADER_BYTES + 8L*this.numWords;
+			long numBytes = 2L*(ARRAY_HEADER_BYTES + REFERENCE_BYTES*(long)this.ends.length);
+			for(int i=0; i<this.ends.length; i++) {
+				if(this.ends[i] != null) {
+					numBytes += rowBytes;
+				}
+				if(this.starts[i] != null) {
+					numBytes += rowBytes;
+				}
+			}
+			return numBytes;
+		}
+		
+		// copies the spans of the given chart that end by the given position; these are already closed under the
+		// productions, so they are not put on the agenda
+		private void addPrefix(Chart prefix, int prefixLength) {
+			int lastWord = prefixLength >>> 6;
+			long lastMask = -1L >>> (63 - (prefixLength & 63));
+			for(int start=0; start<=prefixLength; start++) {
+				for(int symbol=0; symbol<this.numSymbols; symbol++) {
+					long[] prefixRow = prefix.getEnds(start, symbol);
+					if(prefixRow == null) {
+						continue;
+					}
+					long[] row = new long[this.numWords];
+					System.arraycopy(prefixRow, 0, row, 0, lastWord);
+					row[lastWord] = prefixRow[lastWord] & lastMask;
+					this.ends[start*this.numSymbols + symbol] = row;
+				}
 			}
-			this.edges = new HashSet<Edge>();
-			this.worklist = new LinkedList<Edge>();
-			this.outgoingEdges = new LinkedList[string.length+1][grammar.numSymbols];
-			this.incomingEdges = new LinkedList[string.length+1][grammar.numSymbols];
-			for(int i=0; i<string.length+1; i++) {
-				for(int j=0; j<grammar.numSymbols; j++) {
-					this.outgoingEdges[i][j] = new LinkedList<Edge>();
-					this.incomingEdges[i][j] = new LinkedList<Edge>();
+			for(int end=0; end<=prefixLength; end++) {
+				for(int symbol=0; symbol<this.numSymbols; symbol++) {
+					long[] prefixRow = prefix.getStarts(end, symbol);
+					if(prefixRow != null) {
+						this.starts[end*this.numSymbols + symbol] = Arrays.copyOf(prefixRow, this.numWords);
+					}
 				}
 			}
+		}
+	}
+	
+	// a recognizer for one grammar; each call to solve only allocates its chart, so one solver can be shared
+	// across threads
+	public static class ChartSolver {
+		private final CompiledNormalGrammar grammar;
+		
+		public ChartSolver(NormalGrammar grammar) {
+			this(grammar.compile());
+		}
+		
+		public ChartSolver(CompiledNormalGrammar grammar) {
+			this.grammar = grammar;
+		}
+		
+		public boolean solve(char[] string) {
+			if(this.grammar.stopSymbol == -1) {
+				return false;
+			}
+			Chart chart = this.parse(string, null, 0);
+			return chart != null && chart.contains(0, string.length, this.grammar.stopSymbol);
+		}
+		
+		// builds the chart of the string, starting from the spans of the prefix chart that end by the given
+		// position (if any); returns null if the string contains a character not in the grammar
+		private Chart parse(char[] string, Chart prefix, int prefixLength) {
+			CompiledNormalGrammar grammar = this.grammar;
+			
+			// setup
+			Chart chart = new Chart(string.length, grammar.numSymbols);
+			if(prefix != null) {
+				chart.addPrefix(prefix, prefixLength);
+			}
 			
 			// initial edges
-			for(int i=0; i<string.length; i++) {
-				if(!grammar.characters.containsKey(string[i])) {
-					return false;
+			for(int i=prefixLength; i<string.length; i++) {
+				int symbol = grammar.getSymbol(string[i]);
+				if(symbol == -1) {
+					return null;
 				}
-				this.add(new Edge(i, i+1, grammar.characters.get(string[i])));
+				chart.add(i, i+1, symbol);
 			}
 			
 			// empty productions
-			for(int i=0; i<string.length+1; i++) {
-				for(int j : grammar.emptyProductionsByTarget.keySet()) {
-					this.add(new Edge(i, i, j));
+			for(int i=(prefix == null ? 0 : prefixLength+1); i<string.length+1; i++) {
+				for(int target : grammar.emptyTargets) {
+					chart.add(i, i, target);
 				}
 			}
 			
-			// processing
-			while(!this.worklist.isEmpty()) {
-				Edge edge = this.worklist.removeFirst();
-				for(BinaryProduction bp : grammar.binaryProductionsByFirstInput.get(edge.symbol)) {
-					for(Edge secondInput : this.outgoingEdges[edge.end][bp.secondInput]) {
-						this.add(new Edge(edge.start, secondInput.end, bp.target));
+			// processing; each pair of adjacent spans is combined when the later of the two is processed
+			while(chart.head < chart.tail) {
+				int start = chart.agenda[chart.head++];
+				int end = chart.agenda[chart.head++];
+				int symbol = chart.agenda[chart.head++];
+				for(int i=2*grammar.binaryByFirstInputOffsets[symbol]; i<2*grammar.binaryByFirstInputOffsets[symbol+1]; i+=2) {
+					long[] secondEnds = chart.getEnds(end, grammar.binaryByFirstInput[i+1]);
+					if(secondEnds == null) {
+						continue;
+					}
+					for(int word=0; word<secondEnds.length; word++) {
+						for(long bits=secondEnds[word]; bits != 0; bits &= bits-1) {
+							chart.add(start, (word << 6) + Long.numberOfTrailingZeros(bits), grammar.binaryByFirstInput[i]);
+						}
 					}
 				}
-				for(BinaryProduction bp : grammar.binaryProductionsBySecondInput.get(edge.symbol)) {
-					for(Edge firstInput : this.incomingEdges[edge.start][bp.firstInput]) {
-						this.add(new Edge(firstInput.start, edge.end, bp.target));
+				for(int i=2*grammar.binaryBySecondInputOffsets[symbol]; i<2*grammar.binaryBySecondInputOffsets[symbol+1]; i+=2) {
+					long[] firstStarts = chart.getStarts(start, grammar.binaryBySecondInput[i+1]);
+					if(firstStarts == null) {
+						continue;
+					}
+					for(int word=0; word<firstStarts.length; word++) {
+						for(long bits=firstStarts[word]; bits != 0; bits &= bits-1) {
+							chart.add((word << 6) + Long.numberOfTrailingZeros(bits), end, grammar.binaryBySecondInput[i]);
+						}
 					}
 				}
-				for(UnaryProduction up : grammar.unaryProductionsByInput.get(edge.symbol)) {
-					this.add(new Edge(edge.start, edge.end, up.target));
+				for(int i=grammar.unaryByInputOffsets[symbol]; i<grammar.unaryByInputOffsets[symbol+1]; i++) {
+					chart.add(start, end, grammar.unaryByInput[i]);
 				}
 			}
 			
-			// result
-			return this.edges.contains(new Edge(0, string.length, grammar.stopSymbol));
+			chart.agenda = null;
+			return chart;
+		}
+	}
+	
+	// a recognizer that remembers the charts of recent strings; a new string is parsed starting from the chart
+	// sharing its longest prefix, since the spans within a prefix do not depend on what follows it
+	public static class IncrementalChartSolver {
+		private static final int MIN_PREFIX_LENGTH = 8;
+		private static final int MAX_CHARTS = 256; // every lookup scans the cached strings
+		
+		private final ChartSolver solver;
+		private final long maxBytes;
+		private final LinkedHashMap<String,Chart> charts = new LinkedHashMap<String,Chart>(16, 0.75f, true);
+		private final Map<String,Long> chartBytes = new HashMap<String,Long>();
+		private long numBytes = 0;
+		
+		// the cache is bounded by the total memory of its charts, since one chart grows with both the string length
+		// and the number of grammar symbols
+		public IncrementalChartSolver(ChartSolver solver, long maxBytes) {
+			this.solver = solver;
+			this.maxBytes = maxBytes;
+		}
+		
+		public IncrementalChartSolver(ChartSolver solver) {
+			this(solver, Files.CHART_CACHE_BYTES);
 		}
 		
-		private void add(Edge edge) {
-			if(!this.edges.contains(edge)) {
-				this.outgoingEdges[edge.start][edge.symbol].add(edge);
-				this.incomingEdges[edge.end][edge.symbol].add(edge);
-				this.edges.add(edge);
-				this.worklist.add(edge);
+		public boolean solve(String string) {
+			if(this.solver.grammar.stopSymbol == -1) {
+				return false;
 			}
+			
+			// longest cached prefix
+			String prefix = null;
+			Chart prefixChart = null;
+			int prefixLength = 0;
+			synchronized(this.charts) {
+				for(Map.Entry<String,Chart> entry : this.charts.entrySet()) {
+					int length = getCommonPrefixLength(string, entry.getKey());
+					if(length > prefixLength || prefix == null) {
+						prefix = entry.getKey();
+						prefixChart = entry.getValue();
+						prefixLength = length;
+					}
+				}
+				if(prefix != null) {
+					this.charts.get(prefix);
+				}
+			}
+			
+			// parse; a short shared prefix saves less than copying it costs
+			Chart chart;
+			if(prefix != null && prefixLength == string.length()) {
+				// the string is a prefix of a cached string, so its spans are all there
+				chart = prefixChart;
+			} else if(prefixLength < MIN_PREFIX_LENGTH) {
+				chart = this.solver.parse(string.toCharArray(), null, 0);
+			} else {
+				chart = this.solver.parse(string.toCharArray(), prefixChart, prefixLength);
+			}
+			if(chart == null) {
+				return false;
+			}
+			
+			// cache, unless the string is too short to be a useful prefix or its chart alone exceeds the budget
+			if(chart != prefixChart && string.length() >= MIN_PREFIX_LENGTH) {
+				long bytes = chart.getNumBytes();
+				if(bytes <= this.maxBytes) {
+					synchronized(this.charts) {
+						if(!this.charts.containsKey(string)) {
+							this.charts.put(string, chart);
+							this.chartBytes.put(string, bytes);
+							this.numBytes += bytes;
+							Iterator<String> iter = this.charts.keySet().iterator();
+							while(this.numBytes > this.maxBytes || this.charts.size() > MAX_CHARTS) {
+								this.numBytes -= this.chartBytes.remove(iter.next());
+								iter.remove();
+							}
+						}
+					}
+				}
+			}
+			return chart.contains(0, string.length(), this.solver.grammar.stopSymbol);
+		}
+		
+		private static int getCommonPrefixLength(String first, String second) {
+			int length = Math.min(first.length(), second.length());
+			for(int i=0; i<length; i++) {
+				if(first.charAt(i) != second.charAt(i)) {
+					return i;
+				}
+			}
+			return length;
+		}
+	}
+	
+	public static class Solver {
+		public boolean solve(NormalGrammar grammar, char[] string) {
+			return new ChartSolver(grammar).solve(string);
 		}
 	}
 	
 	public static class NormalGrammarOracle implements DiscriminativeOracle {
-		private final NormalGrammar grammar;
+		private final IncrementalChartSolver solver;
 		
 		public NormalGrammarOracle(NormalGrammar grammar) {
-			this.grammar = grammar;
+			this.solver = new IncrementalChartSolver(new ChartSolver(grammar));
+		}
+		
+		public NormalGrammarOracle(CompiledNormalGrammar grammar) {
+			this.solver = new IncrementalChartSolver(new ChartSolver(grammar));
 		}
 		
 		@Override
 		public boolean query(String query) {
-			return new Solver().solve(this.grammar, query.toCharArray());
+			return this.solver.solve(query);
+		}
+		
+		@Override
+		public List<Boolean> queryAll(List<String> queries) {
+			return ParallelUtils.queryAll(this, queries, this.getParallelism());
+		}
+		
+		@Override
+		public boolean queryAllValid(List<String> queries) {
+			return ParallelUtils.queryAllValid(this, queries, this.getParallelism());
+		}
+		
+		@Override
+		public int getParallelism() {
+			return ParallelUtils.NUM_PROCESSORS;
 		}
 	}
 }
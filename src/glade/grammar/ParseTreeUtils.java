@@ -285,7 +285,7 @@ public class ParseTreeUtils {
 		} else if(node instanceof ParseTreeMultiAlternationNode) {
 			ParseTreeNode newChoice = getSubstitute(((ParseTreeMultiAlternationNode)node).choice, cur, sub);
 			return new ParseTreeMultiAlternationNode(((ParseTreeMultiAlternationNode)node).node, newChoice);
-		} else if(node instanceof ParseTreeMultiConstantNode) {
+		} else if(node instanceof ParseTreeMultiConstantNode || node instanceof ParseTreeConstantNode) {
 			return node;
 		} else {
 			throw new RuntimeException("Unrecognized node type!");
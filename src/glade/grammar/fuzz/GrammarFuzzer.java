@@ -20,10 +20,11 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
-import java.util.Set;
 
+import glade.grammar.GrammarParser;
 import glade.grammar.GrammarUtils;
 import glade.grammar.ParseTreeUtils;
+import glade.grammar.GrammarUtils.CharacterSets;
 import glade.grammar.GrammarUtils.ConstantNode;
 import glade.grammar.GrammarUtils.MultiAlternationNode;
 import glade.grammar.GrammarUtils.MultiConstantNode;
@@ -121,19 +122,13 @@ public class GrammarFuzzer {
 			MultiConstantNode mconstNode = (MultiConstantNode)grammar;
 			StringBuilder sb = new StringBuilder();
 			boolean useAllCharacters = parameters.randAllCharacters(random);
-			for(Set<Character> characterOption : useAllCharacters ? mconstNode.characterOptions : mconstNode.characterChecks) {
-				List<Character> characterOptionList = new ArrayList<Character>();
-				if(parameters.omitPound) {
-					for(Character c : characterOption) {
-						if(characterOption.size() == 1 || ((char)c) != '#') {
-							characterOptionList.add(c);
-						}
-					}
-				} else {
-					characterOptionList.addAll(characterOption);
-				}
-				int choice = parameters.randMultiAlternation(random, characterOptionList.size());
-				sb.append(characterOptionList.get(choice));
+			CharacterSets characterSets = useAllCharacters ? mconstNode.characterOptions : mconstNode.characterChecks;
+			for(int i=0; i<characterSets.size(); i++) {
+				// '#' is skipped by shifting the choices after it, unless it is the only option
+				int size = characterSets.size(i);
+				int poundIndex = parameters.omitPound && size > 1 ? characterSets.indexOf(i, '#') : -1;
+				int choice = parameters.randMultiAlternation(random, poundIndex == -1 ? size : size-1);
+				sb.append(characterSets.get(i, poundIndex != -1 && choice >= poundIndex ? choice+1 : choice));
 			}
 			return new ParseTreeMultiConstantNode(mconstNode, sb.toString());
 		} else if(grammar instanceof ConstantNode) {
@@ -200,6 +195,7 @@ public class GrammarFuzzer {
 		private final int maxLength;
 		private final int numMutations;
 		private final Random random;
+		private final List<ParseTreeNode> seeds = new ArrayList<ParseTreeNode>();
 		
 		public GrammarMutationSampler(Pair<Node,NodeMerges> pair, SampleParameters parameters, int maxLength, int numMutations, Random random) {
 			this.pair = pair;
@@ -209,6 +205,21 @@ public class GrammarFuzzer {
 			this.random = random;
 		}
 		
+		// mutates parses of the given inputs instead of the training examples; inputs the grammar rejects are dropped
+		public GrammarMutationSampler(Pair<Node,NodeMerges> pair, List<String> seeds, SampleParameters parameters, int maxLength, int numMutations, Random random) {
+			this(pair, parameters, maxLength, numMutations, random);
+			GrammarParser parser = new GrammarParser(pair);
+			for(String seed : seeds) {
+				ParseTreeNode parseTree = parser.parse(seed);
+				if(parseTree != null) {
+					this.seeds.add(parseTree);
+				}
+			}
+			if(this.seeds.isEmpty()) {
+				throw new RuntimeException("No seed parses!");
+			}
+		}
+		
 		private ParseTreeNode sampleHelper(ParseTreeNode seed) {
 			List<ParseTreeNode>[] descendants = ParseTreeUtils.getDescendantsByType(seed);
 			int isMultiConstant = descendants[1].isEmpty() || (!descendants[0].isEmpty() && this.random.nextBoolean()) ? 0 : 1;
@@ -229,7 +240,11 @@ public class GrammarFuzzer {
 		}
 		
 		public String sampleOne(Node node) {
-			ParseTreeNode cur = ParseTreeUtils.getParseTree(node);
+			return this.sampleOne(ParseTreeUtils.getParseTree(node));
+		}
+		
+		public String sampleOne(ParseTreeNode seed) {
+			ParseTreeNode cur = seed;
 			int choice = this.random.nextInt(this.numMutations);
 			for(int i=0; i<choice; i++) {
 				cur = this.sample(cur);
@@ -239,6 +254,9 @@ public class GrammarFuzzer {
 		
 		@Override
 		public String sample() {
+			if(!this.seeds.isEmpty()) {
+				return this.sampleOne(this.seeds.get(this.random.nextInt(this.seeds.size())));
+			}
 			Node node = this.pair.getX();
 			if(node instanceof MultiAlternationNode) {
 				MultiAlternationNode maltNode = (MultiAlternationNode)node;
@@ -16,8 +16,11 @@
 package glade.grammar.synthesize;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
+import glade.grammar.GrammarToNormalGrammar;
 import glade.grammar.GrammarUtils.ConstantNode;
 import glade.grammar.GrammarUtils.Context;
 import glade.grammar.GrammarUtils.MultiAlternationNode;
@@ -26,8 +29,11 @@ import glade.grammar.GrammarUtils.Node;
 import glade.grammar.GrammarUtils.NodeData;
 import glade.grammar.GrammarUtils.NodeMerges;
 import glade.grammar.GrammarUtils.RepetitionNode;
+import glade.grammar.MultiGrammarUtils.NormalGrammarOracle;
 import glade.util.Log;
+import glade.util.OracleUtils.BudgetedDiscriminativeOracle;
 import glade.util.OracleUtils.DiscriminativeOracle;
+import glade.util.OracleUtils.QueryBudget;
 import glade.util.Utils.Maybe;
 import glade.util.Utils.Pair;
 
@@ -40,11 +46,24 @@ public class GrammarSynthesis {
 		return GrammarTransformer.getTransform(RegexSynthesis.getNode(example, oracle), oracle, useConstantTransformer, useCharacterClasses);
 	}
 	
+	// learns from a minimized version of the example, which is much cheaper for long seeds
+	public static Pair<Node,NodeMerges> getGrammarSingleMinimized(String example, DiscriminativeOracle oracle, boolean useConstantTransformer, boolean useCharacterClasses) {
+		if(!oracle.query(example)) {
+			throw new RuntimeException("Invalid example: " + example);
+		}
+		// the minimized example is valid by construction, so it is not checked again
+		return getGrammarSingleHelper(SeedMinimization.getMinimized(example, oracle), oracle, useConstantTransformer, useCharacterClasses);
+	}
+	
 	public static Pair<Node,NodeMerges> getGrammarSingle(String example, DiscriminativeOracle oracle, boolean useConstantTransformer, boolean useCharacterClasses) {
-		long time = System.currentTimeMillis();
 		if(!oracle.query(example)) {
 			throw new RuntimeException("Invalid example: " + example);
 		}
+		return getGrammarSingleHelper(example, oracle, useConstantTransformer, useCharacterClasses);
+	}
+	
+	private static Pair<Node,NodeMerges> getGrammarSingleHelper(String example, DiscriminativeOracle oracle, boolean useConstantTransformer, boolean useCharacterClasses) {
+		long time = System.currentTimeMillis();
 		Node node = getNode(example, oracle, useConstantTransformer, useCharacterClasses);
 		Log.info("SINGLE REGEX TIME: " + (System.currentTimeMillis() - time));
 		time = System.currentTimeMillis();
@@ -53,6 +72,35 @@ public class GrammarSynthesis {
 		return pair;
 	}
 	
+	// anytime versions: synthesis stops cooperatively once the budget runs out, and returns the grammar built so far,
+	// with the subtrees that were not reached left as constants
+	public static Pair<Node,NodeMerges> getGrammarSingle(String example, DiscriminativeOracle oracle, boolean useConstantTransformer, boolean useCharacterClasses, QueryBudget budget) {
+		// the seed is checked on the unwrapped oracle, since a rejection by an exhausted budget does not make it invalid
+		if(!oracle.query(example)) {
+			throw new RuntimeException("Invalid example: " + example);
+		}
+		Pair<Node,NodeMerges> pair = getGrammarSingleHelper(example, new BudgetedDiscriminativeOracle(oracle, budget), useConstantTransformer, useCharacterClasses);
+		logBudget(budget);
+		return pair;
+	}
+	
+	public static Pair<Node,NodeMerges> getGrammarMultiple(List<String> examples, DiscriminativeOracle oracle, boolean useConstantTransformer, boolean useCharacterClasses, QueryBudget budget) {
+		Pair<Node,NodeMerges> pair = getGrammarMultiple(examples, new BudgetedDiscriminativeOracle(oracle, budget), useConstantTransformer, useCharacterClasses);
+		logBudget(budget);
+		return pair;
+	}
+	
+	private static void logBudget(QueryBudget budget) {
+		if(budget.isExhausted()) {
+			Log.info("BUDGET EXHAUSTED: " + budget.getNumQueries() + " queries in " + budget.getElapsedMillis() + "ms");
+		}
+	}
+	
+	// whether synthesis should stop refining and keep what it has
+	static boolean isExhausted(DiscriminativeOracle oracle) {
+		return oracle instanceof BudgetedDiscriminativeOracle && ((BudgetedDiscriminativeOracle)oracle).getBudget().isExhausted();
+	}
+	
 	public static Pair<Node,NodeMerges> getGrammarMultipleFromRoots(List<Node> roots, DiscriminativeOracle oracle) {
 		long time = System.currentTimeMillis();
 		Pair<Node,NodeMerges> pair = new Pair<Node,NodeMerges>(new MultiAlternationNode(new NodeData(null, new Context()), roots), MergesSynthesis.getMergesMultiple(roots, oracle));
@@ -60,6 +108,19 @@ public class GrammarSynthesis {
 		return pair;
 	}
 	
+	// grammar is a grammar from getGrammarMultipleFromRoots; the result is the same as relearning it with root appended
+	public static Pair<Node,NodeMerges> getGrammarMultipleAddRoot(Pair<Node,NodeMerges> grammar, Node root, DiscriminativeOracle oracle) {
+		long time = System.currentTimeMillis();
+		List<Node> roots = new ArrayList<Node>(grammar.getX().getChildren());
+		NodeMerges merges = new NodeMerges();
+		merges.addAll(grammar.getY());
+		merges.addAll(MergesSynthesis.getMergesIncremental(roots, root, oracle));
+		roots.add(root);
+		Pair<Node,NodeMerges> pair = new Pair<Node,NodeMerges>(new MultiAlternationNode(new NodeData(null, new Context()), roots), merges);
+		Log.info("INCREMENTAL MERGE TIME: " + (System.currentTimeMillis() - time));
+		return pair;
+	}
+	
 	public static Pair<Node,NodeMerges> getGrammarMultiple(List<String> examples, DiscriminativeOracle oracle, boolean useConstantTransformer, boolean useCharacterClasses) {
 		List<Node> roots = new ArrayList<Node>();
 		for(String example : examples) {
@@ -68,6 +129,69 @@ public class GrammarSynthesis {
 		return getGrammarMultipleFromRoots(roots, oracle);
 	}
 	
+	private static interface RootSource {
+		public Node getRoot(int index);
+	}
+	
+	// merges one representative per cluster of similar examples; every other example only becomes a root if the
+	// current grammar rejects it: each round checks the remaining examples against the grammar, adds one
+	// representative per cluster of the rejected ones, and rebuilds the grammar before the next round
+	private static Pair<Node,NodeMerges> getGrammarMultipleClustered(List<String> examples, RootSource roots, DiscriminativeOracle oracle, double threshold) {
+		List<Integer> representatives = SeedClustering.getRepresentatives(examples, threshold);
+		Log.info("SEED REPRESENTATIVES: " + representatives.size() + " of " + examples.size());
+		List<Node> representativeRoots = new ArrayList<Node>();
+		for(int index : representatives) {
+			representativeRoots.add(roots.getRoot(index));
+		}
+		Pair<Node,NodeMerges> pair = getGrammarMultipleFromRoots(representativeRoots, oracle);
+		Set<Integer> isRepresentative = new HashSet<Integer>(representatives);
+		List<Integer> remaining = new ArrayList<Integer>();
+		for(int i=0; i<examples.size(); i++) {
+			if(!isRepresentative.contains(i)) {
+				remaining.add(i);
+			}
+		}
+		while(!remaining.isEmpty()) {
+			NormalGrammarOracle grammarOracle = new NormalGrammarOracle(GrammarToNormalGrammar.transform(pair));
+			List<Integer> rejected = new ArrayList<Integer>();
+			List<String> rejectedExamples = new ArrayList<String>();
+			for(int index : remaining) {
+				if(!grammarOracle.query(examples.get(index))) {
+					rejected.add(index);
+					rejectedExamples.add(examples.get(index));
+				}
+			}
+			remaining = new ArrayList<Integer>();
+			Set<Integer> added = new HashSet<Integer>(SeedClustering.getRepresentatives(rejectedExamples, threshold));
+			for(int i=0; i<rejected.size(); i++) {
+				if(added.contains(i)) {
+					Log.info("SEED REJECTED BY GRAMMAR: " + rejected.get(i));
+					pair = getGrammarMultipleAddRoot(pair, roots.getRoot(rejected.get(i)), oracle);
+				} else {
+					remaining.add(rejected.get(i));
+				}
+			}
+		}
+		return pair;
+	}
+	
+	public static Pair<Node,NodeMerges> getGrammarMultipleClustered(final List<String> examples, final DiscriminativeOracle oracle, final boolean useConstantTransformer, final boolean useCharacterClasses, double threshold) {
+		return getGrammarMultipleClustered(examples, new RootSource() {
+			public Node getRoot(int index) {
+				return getNode(examples.get(index), oracle, useConstantTransformer, useCharacterClasses);
+			}
+		}, oracle, threshold);
+	}
+	
+	// roots.get(i) is the grammar already learned from examples.get(i)
+	public static Pair<Node,NodeMerges> getGrammarMultipleClusteredFromRoots(List<String> examples, final List<Node> roots, DiscriminativeOracle oracle, double threshold) {
+		return getGrammarMultipleClustered(examples, new RootSource() {
+			public Node getRoot(int index) {
+				return roots.get(index);
+			}
+		}, oracle, threshold);
+	}
+	
 	public static Pair<Node,NodeMerges> getRegularGrammarMultipleFromRoots(List<Node> roots, DiscriminativeOracle oracle) {
 		long time = System.currentTimeMillis();
 		Pair<Node,NodeMerges> pair = new Pair<Node,NodeMerges>(new MultiAlternationNode(new NodeData(null, new Context()), roots), new NodeMerges());
@@ -84,12 +208,15 @@ public class GrammarSynthesis {
 	}
 	
 	public static boolean getCheck(DiscriminativeOracle oracle, Context context, Iterable<String> examples) {
+		List<String> queries = new ArrayList<String>();
+		boolean useExtra = context.useExtra();
 		for(String example : examples) {
-			if(!oracle.query(context.pre + example + context.post) || (context.useExtra() && !oracle.query(context.extraPre + example + context.extraPost))) {
-				return false;
+			queries.add(context.getQuery(example));
+			if(useExtra) {
+				queries.add(context.getExtraQuery(example));
 			}
 		}
-		return true;
+		return oracle.queryAllValid(queries);
 	}
 	
 	public static Maybe<List<Node>> getMultiAlternationRepetitionConstantChildren(Node node, boolean isParentRep) {
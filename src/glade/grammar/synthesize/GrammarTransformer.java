@@ -76,11 +76,61 @@ public class GrammarTransformer {
 		}
 	}
 	
+	// a set of characters below 128, as two 64-bit words
+	private static class AsciiMask {
+		private long low = 0;
+		private long high = 0;
+		private boolean contains(char c) {
+			return c < 64 ? (this.low & (1L << c)) != 0 : (this.high & (1L << (c - 64))) != 0;
+		}
+		private void add(char c) {
+			if(c < 64) {
+				this.low |= 1L << c;
+			} else {
+				this.high |= 1L << (c - 64);
+			}
+		}
+	}
+	
+	// the ascii characters other than curC that can replace a single character in the given context; all the
+	// candidates go to the oracle as one batch
+	private static AsciiMask getValidAscii(Context context, char curC, DiscriminativeOracle oracle) {
+		AsciiMask valid = new AsciiMask();
+		List<Character> candidates = new ArrayList<Character>();
+		List<String> queries = new ArrayList<String>();
+		for(char c : CharacterUtils.getAsciiCharacters()) {
+			if(c != curC) {
+				candidates.add(c);
+				queries.add(context.getQuery(String.valueOf(c)));
+			}
+		}
+		List<Boolean> responses = oracle.queryAll(queries);
+		if(context.useExtra()) {
+			// same queries as GrammarSynthesis.getCheck, which only tries the extra context for characters that pass
+			List<Character> extraCandidates = new ArrayList<Character>();
+			List<String> extraQueries = new ArrayList<String>();
+			for(int i=0; i<candidates.size(); i++) {
+				if(responses.get(i)) {
+					extraCandidates.add(candidates.get(i));
+					extraQueries.add(context.getExtraQuery(String.valueOf(candidates.get(i))));
+				}
+			}
+			candidates = extraCandidates;
+			responses = oracle.queryAll(extraQueries);
+		}
+		for(int i=0; i<candidates.size(); i++) {
+			if(responses.get(i)) {
+				valid.add(candidates.get(i));
+			}
+		}
+		return valid;
+	}
+	
 	private static MultiConstantNode generalizeConstant(ConstantNode node, DiscriminativeOracle oracle, boolean useConstantTransformer, boolean useCharacterClasses) {
 		String example = node.getData().example;
 		Context context = node.getData().context;
 		if(example.length() != 0) {
-			Log.info("GENERALIZING CONST: " + example + " ## " + context.pre + " ## " + context.post);
+			Log.info("GENERALIZING CONST: " + example + " ## " + context.getPre() + " ## " + context.getPost());
 		}
 		List<List<Character>> characterOptions = new ArrayList<List<Character>>();
 		List<List<Character>> characterChecks = new ArrayList<List<Character>>();
@@ -88,7 +138,7 @@ public class GrammarTransformer {
 			List<Character> characterOption = new ArrayList<Character>();
 			List<Character> characterCheck = new ArrayList<Character>();
 			char curC = example.charAt(i);
-			Context curContext = new Context(context, example.substring(0, i), example.substring(i+1), example.substring(0, i), example.substring(i+1));
+			Context curContext = new Context(context, example, i, i+1, i, i+1);
 			characterOption.add(curC);
 			characterCheck.add(curC);
 			if(useConstantTransformer && useCharacterClasses) {
@@ -115,13 +165,11 @@ public class GrammarTransformer {
 					}
 				}
 			} else if(useConstantTransformer) {
+				AsciiMask mask = getValidAscii(curContext, curC, oracle);
 				for(char c : CharacterUtils.getAsciiCharacters()) {
-					if(curC != c) {
-						List<String> checks = Utils.getList("" + c);
-						if(GrammarSynthesis.getCheck(oracle, curContext, checks)) {
-							characterOption.add(c);
-							characterCheck.add(c);
-						}
+					if(curC != c && mask.contains(c)) {
+						characterOption.add(c);
+						characterCheck.add(c);
 					}
 				}
 			}
@@ -136,7 +184,7 @@ public class GrammarTransformer {
 			return false;
 		}
 		for(int i=0; i<example.length(); i++) {
-			if(!mconstNode.characterOptions.get(i).contains(example.charAt(i))) {
+			if(!mconstNode.characterOptions.contains(i, example.charAt(i))) {
 				return false;
 			}
 		}
@@ -179,7 +227,7 @@ public class GrammarTransformer {
 			this.useCharacterClasses = useCharacterClasses;
 		}
 		public Node transformConstant(ConstantNode node) {
-			return this.ignoredConstants.contains(node) ? node : generalizeConstant(node, this.oracle, this.useConstantTransformer, this.useCharacterClasses);
+			return this.ignoredConstants.contains(node) || GrammarSynthesis.isExhausted(this.oracle) ? node : generalizeConstant(node, this.oracle, this.useConstantTransformer, this.useCharacterClasses);
 		}
 		public Node transformMultiConstant(MultiConstantNode node) {
 			throw new RuntimeException("Invalid!");
@@ -188,7 +236,7 @@ public class GrammarTransformer {
 			return new AlternationNode(node.getData(), newFirst, newSecond);
 		}
 		public Node transformMultiAlternation(MultiAlternationNode node, List<Node> newChildren) {
-			return this.multiAlternationNodeConstantChildren.containsKey(node) ? generalizeMultiAlternationConstant(node, this.multiAlternationNodeConstantChildren, this.oracle, this.useConstantTransformer, this.useCharacterClasses) : new MultiAlternationNode(node.getData(), newChildren);
+			return this.multiAlternationNodeConstantChildren.containsKey(node) && !GrammarSynthesis.isExhausted(this.oracle) ? generalizeMultiAlternationConstant(node, this.multiAlternationNodeConstantChildren, this.oracle, this.useConstantTransformer, this.useCharacterClasses) : new MultiAlternationNode(node.getData(), newChildren);
 		}
 		public Node transformRepetition(RepetitionNode node, Node newStart, Node newRep, Node newEnd) {
 			return new RepetitionNode(node.getData(), newStart, newRep, newEnd);
@@ -16,8 +16,15 @@
 package glade.grammar.synthesize;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import glade.grammar.GrammarUtils;
 import glade.grammar.GrammarUtils.AlternationNode;
@@ -29,11 +36,16 @@ import glade.grammar.GrammarUtils.NodeMerges;
 import glade.grammar.GrammarUtils.RepetitionNode;
 import glade.util.Log;
 import glade.util.OracleUtils.DiscriminativeOracle;
+import glade.util.OracleUtils.LimitedParallelismDiscriminativeOracle;
+import glade.util.ParallelUtils;
 import glade.util.Utils.MultivalueMap;
+import glade.util.Utils.Pair;
 
 public class MergesSynthesis {
+	private static final int MERGE_CHUNKS_PER_THREAD = 4;
+	
 	public static NodeMerges getMergesMultiple(List<Node> roots, DiscriminativeOracle oracle) {
-		NodeMerges merges = new NodeMerges();
+		List<Pair<Node,Node>> rootPairs = new ArrayList<Pair<Node,Node>>();
 		NodeMerges processed = new NodeMerges();
 		for(Node first : roots) {
 			for(Node second : roots) {
@@ -41,63 +53,169 @@ public class MergesSynthesis {
 					continue;
 				}
 				processed.add(first, second);
-				merges.addAll(getMergesSingle(first, second, oracle));
+				rootPairs.add(new Pair<Node,Node>(first, second));
 			}
 		}
-		return merges;
+		return getMergesRootPairs(rootPairs, oracle);
+	}
+	
+	// only the merges that involve the new root, i.e., what getMergesMultiple would add for it
+	public static NodeMerges getMergesIncremental(List<Node> roots, Node root, DiscriminativeOracle oracle) {
+		List<Pair<Node,Node>> rootPairs = new ArrayList<Pair<Node,Node>>();
+		for(Node first : roots) {
+			rootPairs.add(new Pair<Node,Node>(first, root));
+		}
+		rootPairs.add(new Pair<Node,Node>(root, root));
+		return getMergesRootPairs(rootPairs, oracle);
 	}
 	
 	public static NodeMerges getMergesSingle(Node firstRoot, Node secondRoot, DiscriminativeOracle oracle) {
+		List<Pair<Node,Node>> rootPairs = new ArrayList<Pair<Node,Node>>();
+		rootPairs.add(new Pair<Node,Node>(firstRoot, secondRoot));
+		return getMergesRootPairs(rootPairs, oracle);
+	}
+	
+	// a repetition node that passes the structural filters, with what its checks need (no pair key is sound)
+	private static class MergeCandidate {
+		private final Node node;
+		private final Node rep;
+		private final boolean isStructured;
+		private final String repeatedExample;
+		private final List<String> repeatedExamples = new ArrayList<String>();
+		private MergeCandidate(RepetitionNode node, MultivalueMap<Node,String> examples) {
+			this.node = node;
+			this.rep = node.rep;
+			this.isStructured = isStructuredExample(node.rep);
+			this.repeatedExample = node.rep.getData().example + node.rep.getData().example;
+			for(String example : examples.get(node.rep)) {
+				this.repeatedExamples.add(example + example);
+			}
+		}
+	}
+	
+	// in the same order as GrammarUtils.getAllNodes, so pairs are checked in the same order as before
+	private static List<MergeCandidate> getMergeCandidates(Node root) {
+		MultivalueMap<Node,String> examples = getAllExamples(root);
+		List<MergeCandidate> candidates = new ArrayList<MergeCandidate>();
+		for(Node node : GrammarUtils.getAllNodes(root)) {
+			if(!(node instanceof RepetitionNode)) {
+				continue;
+			}
+			Node rep = ((RepetitionNode)node).rep;
+			if(rep instanceof ConstantNode || rep instanceof MultiConstantNode || isMultiAlternationRepetitionConstant(rep, true)) {
+				continue;
+			}
+			candidates.add(new MergeCandidate((RepetitionNode)node, examples));
+		}
+		return candidates;
+	}
+	
+	private static NodeMerges getMergesRootPairs(List<Pair<Node,Node>> rootPairs, DiscriminativeOracle oracle) {
+		Map<Node,List<MergeCandidate>> candidates = new HashMap<Node,List<MergeCandidate>>();
+		for(Pair<Node,Node> rootPair : rootPairs) {
+			for(Node root : new Node[] {rootPair.getX(), rootPair.getY()}) {
+				if(!candidates.containsKey(root)) {
+					candidates.put(root, getMergeCandidates(root));
+				}
+			}
+		}
+		// the simple checks only depend on the context and the repeated example, which many pairs share
+		Map<Pair<Node,String>,Boolean> simpleChecks = new ConcurrentHashMap<Pair<Node,String>,Boolean>();
+		if(oracle.getParallelism() > 1) {
+			return getMergesParallel(rootPairs, candidates, simpleChecks, oracle);
+		}
 		NodeMerges merges = new NodeMerges();
-		NodeMerges processedMerges = new NodeMerges();
-		MultivalueMap<Node,String> pairFirst = getAllExamples(firstRoot);
-		MultivalueMap<Node,String> pairSecond = getAllExamples(secondRoot);
-		for(Node first : GrammarUtils.getAllNodes(firstRoot)) {
-			for(Node second : GrammarUtils.getAllNodes(secondRoot)) {
-				if(processedMerges.contains(first, second)) {
-					continue;
+		for(Pair<Node,Node> rootPair : rootPairs) {
+			NodeMerges processedMerges = new NodeMerges();
+			for(MergeCandidate first : candidates.get(rootPair.getX())) {
+				for(MergeCandidate second : candidates.get(rootPair.getY())) {
+					if(processedMerges.contains(first.node, second.node)) {
+						continue;
+					}
+					processedMerges.add(first.node, second.node);
+					getMergesHelper(first, second, simpleChecks, oracle, merges);
 				}
-				processedMerges.add(first, second);
-				getMergesHelper(first, second, pairFirst, pairSecond, oracle, merges);
 			}
 		}
 		return merges;
 	}
 	
-	private static void getMergesHelper(Node first, Node second, MultivalueMap<Node,String> firstExampleMap, MultivalueMap<Node,String> secondExampleMap, DiscriminativeOracle oracle, NodeMerges merges) {
-		if(first.equals(second)) {
-			return;
+	// each chunk is a range of first candidates of one root pair; chunks run on a work-stealing pool of
+	// getParallelism() threads, each checking its pairs sequentially, and their merges are combined in chunk
+	// order, so the result is the same as the sequential search
+	private static NodeMerges getMergesParallel(List<Pair<Node,Node>> rootPairs, Map<Node,List<MergeCandidate>> candidates, final Map<Pair<Node,String>,Boolean> simpleChecks, DiscriminativeOracle oracle) {
+		int parallelism = oracle.getParallelism();
+		final DiscriminativeOracle chunkOracle = new LimitedParallelismDiscriminativeOracle(oracle, 1);
+		// collapses pairs that are reachable from more than one root pair (or in both orders)
+		final Set<Pair<Node,Node>> processed = Collections.newSetFromMap(new ConcurrentHashMap<Pair<Node,Node>,Boolean>());
+		List<Callable<NodeMerges>> chunks = new ArrayList<Callable<NodeMerges>>();
+		for(Pair<Node,Node> rootPair : rootPairs) {
+			final boolean isSameRoot = rootPair.getX() == rootPair.getY();
+			final List<MergeCandidate> firstCandidates = candidates.get(rootPair.getX());
+			final List<MergeCandidate> secondCandidates = candidates.get(rootPair.getY());
+			int chunkSize = Math.max(1, firstCandidates.size()/(MERGE_CHUNKS_PER_THREAD*parallelism));
+			for(int i=0; i<firstCandidates.size(); i+=chunkSize) {
+				final int start = i;
+				final int end = Math.min(i+chunkSize, firstCandidates.size());
+				chunks.add(new Callable<NodeMerges>() {
+					public NodeMerges call() {
+						NodeMerges merges = new NodeMerges();
+						for(int j=start; j<end; j++) {
+							MergeCandidate first = firstCandidates.get(j);
+							// within a root, (second, first) was already visited as (first, second)
+							for(int k=(isSameRoot ? j : 0); k<secondCandidates.size(); k++) {
+								MergeCandidate second = secondCandidates.get(k);
+								if(processed.contains(new Pair<Node,Node>(second.node, first.node)) || !processed.add(new Pair<Node,Node>(first.node, second.node))) {
+									continue;
+								}
+								getMergesHelper(first, second, simpleChecks, chunkOracle, merges);
+							}
+						}
+						return merges;
+					}
+				});
+			}
 		}
-		if(!(first instanceof RepetitionNode) || !(second instanceof RepetitionNode)) {
-			return;
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		List<Future<NodeMerges>> futures = new ArrayList<Future<NodeMerges>>();
+		try {
+			for(Callable<NodeMerges> chunk : chunks) {
+				futures.add(pool.submit(chunk));
+			}
+			NodeMerges merges = new NodeMerges();
+			for(Future<NodeMerges> future : futures) {
+				merges.addAll(ParallelUtils.get(future));
+			}
+			return merges;
+		} finally {
+			ParallelUtils.cancelAll(futures);
+			pool.shutdown();
 		}
-		Node firstRep = ((RepetitionNode)first).rep;
-		Node secondRep = ((RepetitionNode)second).rep;
-		if(firstRep instanceof ConstantNode || firstRep instanceof MultiConstantNode || secondRep instanceof ConstantNode || secondRep instanceof MultiConstantNode) {
-			return;
+	}
+	
+	private static boolean getSimpleCheck(DiscriminativeOracle oracle, Node rep, String repeatedExample, Map<Pair<Node,String>,Boolean> simpleChecks) {
+		Pair<Node,String> key = new Pair<Node,String>(rep, repeatedExample);
+		Boolean check = simpleChecks.get(key);
+		if(check == null) {
+			check = GrammarSynthesis.getCheck(oracle, rep.getData().context, Collections.singletonList(repeatedExample));
+			simpleChecks.put(key, check);
 		}
-		if(isMultiAlternationRepetitionConstant(firstRep, true) || isMultiAlternationRepetitionConstant(secondRep, true)) {
+		return check;
+	}
+	
+	private static void getMergesHelper(MergeCandidate first, MergeCandidate second, Map<Pair<Node,String>,Boolean> simpleChecks, DiscriminativeOracle oracle, NodeMerges merges) {
+		if(first.node.equals(second.node)) {
 			return;
 		}
-		List<String> firstExamplesSimple = new ArrayList<String>();
-		List<String> secondExamplesSimple = new ArrayList<String>();
-		firstExamplesSimple.add(secondRep.getData().example + secondRep.getData().example);
-		secondExamplesSimple.add(firstRep.getData().example + firstRep.getData().example);
-		if(!GrammarSynthesis.getCheck(oracle, firstRep.getData().context, firstExamplesSimple) || !GrammarSynthesis.getCheck(oracle, secondRep.getData().context, secondExamplesSimple)) {
+		Node firstRep = first.rep;
+		Node secondRep = second.rep;
+		if(!getSimpleCheck(oracle, firstRep, second.repeatedExample, simpleChecks) || !getSimpleCheck(oracle, secondRep, first.repeatedExample, simpleChecks)) {
 			return;
 		}
-		List<String> firstExamples = new ArrayList<String>();
-		for(String example : secondExampleMap.get(secondRep)) {
-			firstExamples.add(example + example);
-		}
-		List<String> secondExamples = new ArrayList<String>();
-		for(String example : firstExampleMap.get(firstRep)) {
-			secondExamples.add(example + example);
-		}
-		if((isStructuredExample(firstRep) && isStructuredExample(secondRep))
-				|| (GrammarSynthesis.getCheck(oracle, firstRep.getData().context, firstExamples) && GrammarSynthesis.getCheck(oracle, secondRep.getData().context, secondExamples))) {
-			Log.info("MERGE NODE FIRST:\n" + firstRep.getData().context.pre + " ## " + firstRep.getData().example + " ## " + firstRep.getData().context.post);
-			Log.info("MERGE NODE SECOND:\n" + secondRep.getData().context.pre + " ## " + secondRep.getData().example + " ## " + secondRep.getData().context.post);
+		if((first.isStructured && second.isStructured)
+				|| (GrammarSynthesis.getCheck(oracle, firstRep.getData().context, second.repeatedExamples) && GrammarSynthesis.getCheck(oracle, secondRep.getData().context, first.repeatedExamples))) {
+			Log.info("MERGE NODE FIRST:\n" + firstRep.getData().context.getPre() + " ## " + firstRep.getData().example + " ## " + firstRep.getData().context.getPost());
+			Log.info("MERGE NODE SECOND:\n" + secondRep.getData().context.getPre() + " ## " + secondRep.getData().example + " ## " + secondRep.getData().context.getPost());
 			merges.add(firstRep, secondRep);
 		}
 	}
@@ -123,8 +241,8 @@ public class MergesSynthesis {
 			for(int i=0; i<mconstNode.characterChecks.size(); i++) {
 				String pre = example.substring(0, i);
 				String post = example.substring(i+1);
-				for(char c : mconstNode.characterChecks.get(i)) {
-					examples.add(mconstNode, pre + c + post);
+				for(int j=0; j<mconstNode.characterChecks.size(i); j++) {
+					examples.add(mconstNode, pre + mconstNode.characterChecks.get(i, j) + post);
 				}
 			}
 		} else if(node instanceof AlternationNode) {
@@ -167,8 +285,8 @@ public class MergesSynthesis {
 				continue;
 			}
 			MultiConstantNode mconstNode = (MultiConstantNode)descendant;
-			for(Set<Character> checks : mconstNode.characterChecks) {
-				if(checks.size() == 1) {
+			for(int i=0; i<mconstNode.characterChecks.size(); i++) {
+				if(mconstNode.characterChecks.size(i) == 1) {
 					return true;
 				}
 			}
@@ -16,7 +16,11 @@
 package glade.grammar.synthesize;
 
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import glade.grammar.GrammarUtils.AlternationNode;
 import glade.grammar.GrammarUtils.ConstantNode;
@@ -26,6 +30,7 @@ import glade.grammar.GrammarUtils.NodeData;
 import glade.grammar.GrammarUtils.RepetitionNode;
 import glade.util.Log;
 import glade.util.OracleUtils.DiscriminativeOracle;
+import glade.util.ParallelUtils;
 import glade.util.Utils.Maybe;
 
 public class RegexSynthesis {
@@ -73,39 +78,159 @@ public class RegexSynthesis {
 		}
 	}
 	
+	private static interface CandidateChecks<T> {
+		public List<String> getChecks(T candidate);
+	}
+	
+	// the queries of one candidate run sequentially; the concurrency comes from checking several candidates at once
+	private static boolean getSequentialCheck(DiscriminativeOracle oracle, Context context, List<String> checks) {
+		return GrammarSynthesis.getCheck(new SequentialDiscriminativeOracle(oracle), context, checks);
+	}
+	
+	private static class SequentialDiscriminativeOracle implements DiscriminativeOracle {
+		private final DiscriminativeOracle oracle;
+		private SequentialDiscriminativeOracle(DiscriminativeOracle oracle) {
+			this.oracle = oracle;
+		}
+		@Override
+		public boolean query(String query) {
+			return this.oracle.query(query);
+		}
+	}
+	
+	// the first candidate (in order) that passes its checks; with a concurrent oracle, the next getParallelism()
+	// candidates are checked speculatively, but a candidate only wins once every earlier candidate has failed
+	private static <T> Maybe<T> getFirstPassing(final DiscriminativeOracle oracle, final Context context, Iterator<T> candidates, final CandidateChecks<T> checks) {
+		int windowSize = oracle.getParallelism();
+		if(windowSize <= 1) {
+			while(candidates.hasNext()) {
+				if(GrammarSynthesis.isExhausted(oracle)) {
+					return new Maybe<T>();
+				}
+				T candidate = candidates.next();
+				if(GrammarSynthesis.getCheck(oracle, context, checks.getChecks(candidate))) {
+					return new Maybe<T>(candidate);
+				}
+			}
+			return new Maybe<T>();
+		}
+		LinkedList<T> windowCandidates = new LinkedList<T>();
+		LinkedList<Future<Boolean>> windowResults = new LinkedList<Future<Boolean>>();
+		try {
+			while(true) {
+				if(GrammarSynthesis.isExhausted(oracle)) {
+					return new Maybe<T>();
+				}
+				while(windowResults.size() < windowSize && candidates.hasNext()) {
+					final T candidate = candidates.next();
+					windowCandidates.add(candidate);
+					windowResults.add(ParallelUtils.getExecutor().submit(new Callable<Boolean>() {
+						public Boolean call() {
+							return getSequentialCheck(oracle, context, checks.getChecks(candidate));
+						}
+					}));
+				}
+				if(windowResults.isEmpty()) {
+					return new Maybe<T>();
+				}
+				T candidate = windowCandidates.removeFirst();
+				if(ParallelUtils.get(windowResults.removeFirst())) {
+					return new Maybe<T>(candidate);
+				}
+			}
+		} finally {
+			ParallelUtils.cancelAll(windowResults);
+		}
+	}
+	
+	// (init, len) pairs in the order of the sequential search
+	private static class RepetitionCandidateIterator implements Iterator<int[]> {
+		private final int length;
+		private final boolean isWholeStringRepeatable;
+		private int init = 0;
+		private int len;
+		
+		private RepetitionCandidateIterator(int length, boolean isWholeStringRepeatable) {
+			this.length = length;
+			this.isWholeStringRepeatable = isWholeStringRepeatable;
+			this.len = length;
+			this.skip();
+		}
+		
+		private void skip() {
+			while(this.init <= this.length-1) {
+				if(this.len < 1) {
+					this.init++;
+					this.len = this.length-this.init;
+				} else if(this.len == this.length && !this.isWholeStringRepeatable) {
+					this.len--;
+				} else {
+					return;
+				}
+			}
+		}
+		
+		@Override
+		public boolean hasNext() {
+			return this.init <= this.length-1;
+		}
+		
+		@Override
+		public int[] next() {
+			int[] candidate = new int[]{this.init, this.len};
+			this.len--;
+			this.skip();
+			return candidate;
+		}
+		
+		@Override
+		public void remove() {
+			throw new RuntimeException("Invalid operation!");
+		}
+	}
+	
 	private static Maybe<AlternationPartialNode> getAlternationPartialNode(NodeData cur, DiscriminativeOracle oracle) {
-		for(int i=1; i<=cur.example.length()-1; i++) {
-			String first = cur.example.substring(0, i);
-			String second = cur.example.substring(i);
-			if(GrammarSynthesis.getCheck(oracle, cur.context, getAlternationChecks(first, second))) {
-				NodeData firstData = new NodeData(first, new Context(cur.context, "", second, "", ""));
-				NodeData secondData = new NodeData(second, new Context(cur.context, first, "", "", ""));
-				Log.info("FOUND ALT: " + first + " ## " + second);
-				return new Maybe<AlternationPartialNode>(new AlternationPartialNode(firstData, secondData));
+		final String example = cur.example;
+		List<Integer> splits = new ArrayList<Integer>();
+		for(int i=1; i<=example.length()-1; i++) {
+			splits.add(i);
+		}
+		Maybe<Integer> split = getFirstPassing(oracle, cur.context, splits.iterator(), new CandidateChecks<Integer>() {
+			public List<String> getChecks(Integer i) {
+				return getAlternationChecks(example.substring(0, i), example.substring(i));
 			}
+		});
+		if(!split.hasT()) {
+			return new Maybe<AlternationPartialNode>();
 		}
-		return new Maybe<AlternationPartialNode>();
+		String first = example.substring(0, split.getT());
+		String second = example.substring(split.getT());
+		NodeData firstData = new NodeData(first, new Context(cur.context, example, 0, split.getT(), 0, example.length()));
+		NodeData secondData = new NodeData(second, new Context(cur.context, example, split.getT(), example.length(), 0, example.length()));
+		Log.info("FOUND ALT: " + first + " ## " + second);
+		return new Maybe<AlternationPartialNode>(new AlternationPartialNode(firstData, secondData));
 	}
 	
 	private static Maybe<RepetitionPartialNode> getRepetitionPartialNode(NodeData cur, DiscriminativeOracle oracle, boolean isWholeStringRepeatable) {
-		for(int init=0; init<=cur.example.length()-1; init++) {
-			for(int len=cur.example.length()-init; len>=1; len--) {
-				if(len == cur.example.length() && !isWholeStringRepeatable) {
-					continue;
-				}
-				String start = cur.example.substring(0, init);
-				String rep = cur.example.substring(init, init+len);
-				String end = cur.example.substring(init+len);
-				if(GrammarSynthesis.getCheck(oracle, cur.context, getRepetitionChecks(start, rep, end))) {
-					NodeData startData = new NodeData(start, new Context(cur.context, "", rep+end, "", end));
-					NodeData repData = new NodeData(rep, new Context(cur.context, start, end, start, end));
-					NodeData endData = new NodeData(end, new Context(cur.context, start+rep, "", start, ""));
-					Log.info("FOUND REP: " + rep + " ## " + start + " ## " + end);
-					return new Maybe<RepetitionPartialNode>(new RepetitionPartialNode(startData, repData, endData));
-				}
+		final String example = cur.example;
+		Maybe<int[]> candidate = getFirstPassing(oracle, cur.context, new RepetitionCandidateIterator(example.length(), isWholeStringRepeatable), new CandidateChecks<int[]>() {
+			public List<String> getChecks(int[] candidate) {
+				return getRepetitionChecks(example.substring(0, candidate[0]), example.substring(candidate[0], candidate[0]+candidate[1]), example.substring(candidate[0]+candidate[1]));
 			}
+		});
+		if(!candidate.hasT()) {
+			return new Maybe<RepetitionPartialNode>();
 		}
-		return new Maybe<RepetitionPartialNode>();
+		int init = candidate.getT()[0];
+		int len = candidate.getT()[1];
+		String start = example.substring(0, init);
+		String rep = example.substring(init, init+len);
+		String end = example.substring(init+len);
+		NodeData startData = new NodeData(start, new Context(cur.context, example, 0, init, 0, init+len));
+		NodeData repData = new NodeData(rep, new Context(cur.context, example, init, init+len, init, init+len));
+		NodeData endData = new NodeData(end, new Context(cur.context, example, init+len, example.length(), init, example.length()));
+		Log.info("FOUND REP: " + rep + " ## " + start + " ## " + end);
+		return new Maybe<RepetitionPartialNode>(new RepetitionPartialNode(startData, repData, endData));
 	}
 	
 	private static Maybe<Node> getConstantNode(NodeData cur, DiscriminativeOracle oracle) {
@@ -138,6 +263,9 @@ public class RegexSynthesis {
 	}
 	
 	private static Node getNode(NodeData cur, DiscriminativeOracle oracle, NodeType[] types, boolean isWholeStringRepeatable) {
+		if(GrammarSynthesis.isExhausted(oracle)) {
+			return getConstantNode(cur, oracle).getT();
+		}
 		for(NodeType type : types) {
 			switch(type) {
 			case REPETITION:
@@ -0,0 +1,91 @@
+/*  Copyright 2015-2017 Stanford University                                                                                                                                       
+ *                                                                                                                                                                               
+ *  Licensed under the Apache License, Version 2.0 (the "License");                                                                                                               
+ *  you may not use this file except in compliance with the License.                                                                                                              
+ *  You may obtain a copy of the License at                                                                                                                                       
+                                                                                                                                                                                
+ *      http://www.apache.org/licenses/LICENSE-2.0                                                                                                                                
+                                                                                                                                                                                
+ *  Unless required by applicable law or agreed to in writing, software                                                                                                           
+ *  distributed under the License is distributed on an "AS IS" BASIS,                                                                                                             
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.                                                                                                      
+ *  See the License for the specific language governing permissions and                                                                                                           
+ *  limitations under the License. 
+ */
+
+package glade.grammar.synthesize;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class SeedClustering {
+	public static final int SHINGLE_LENGTH = 4;
+	public static final double SIMILARITY_THRESHOLD = 0.9;
+	
+	// letters, digits and whitespace are collapsed into one token per run, every other character is its own token
+	private static String getTokens(String example) {
+		StringBuilder sb = new StringBuilder();
+		char prev = 0;
+		for(int i=0; i<example.length(); i++) {
+			char c = example.charAt(i);
+			char token = Character.isLetter(c) ? 'a' : Character.isDigit(c) ? '0' : Character.isWhitespace(c) ? ' ' : c;
+			if(token != prev || (token != 'a' && token != '0' && token != ' ')) {
+				sb.append(token);
+			}
+			prev = token;
+		}
+		return sb.toString();
+	}
+	
+	// the set of token shingles of the example
+	public static Set<String> getFingerprint(String example) {
+		String tokens = getTokens(example);
+		Set<String> shingles = new HashSet<String>();
+		if(tokens.length() <= SHINGLE_LENGTH) {
+			shingles.add(tokens);
+			return shingles;
+		}
+		for(int i=0; i+SHINGLE_LENGTH<=tokens.length(); i++) {
+			shingles.add(tokens.substring(i, i+SHINGLE_LENGTH));
+		}
+		return shingles;
+	}
+	
+	// jaccard similarity of the shingle sets
+	public static double getSimilarity(Set<String> first, Set<String> second) {
+		if(first.isEmpty() && second.isEmpty()) {
+			return 1.0;
+		}
+		int intersection = 0;
+		for(String shingle : first) {
+			if(second.contains(shingle)) {
+				intersection++;
+			}
+		}
+		return (double)intersection/(first.size() + second.size() - intersection);
+	}
+	
+	// greedy clustering in order: an example is a representative unless it is at least threshold similar to an
+	// earlier representative; returns the indices of the representatives
+	public static List<Integer> getRepresentatives(List<String> examples, double threshold) {
+		List<Integer> representatives = new ArrayList<Integer>();
+		List<Set<String>> fingerprints = new ArrayList<Set<String>>();
+		for(int i=0; i<examples.size(); i++) {
+			Set<String> fingerprint = getFingerprint(examples.get(i));
+			boolean isRepresented = false;
+			for(Set<String> representative : fingerprints) {
+				if(getSimilarity(fingerprint, representative) >= threshold) {
+					isRepresented = true;
+					break;
+				}
+			}
+			if(!isRepresented) {
+				representatives.add(i);
+				fingerprints.add(fingerprint);
+			}
+		}
+		return representatives;
+	}
+}
@@ -0,0 +1,66 @@
+/*  Copyright 2015-2017 Stanford University                                                                                                                                       
+ *                                                                                                                                                                               
+ *  Licensed under the Apache License, Version 2.0 (the "License");                                                                                                               
+ *  you may not use this file except in compliance with the License.                                                                                                              
+ *  You may obtain a copy of the License at                                                                                                                                       
+                                                                                                                                                                                
+ *      http://www.apache.org/licenses/LICENSE-2.0                                                                                                                                
+                                                                                                                                                                                
+ *  Unless required by applicable law or agreed to in writing, software                                                                                                           
+ *  distributed under the License is distributed on an "AS IS" BASIS,                                                                                                             
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.                                                                                                      
+ *  See the License for the specific language governing permissions and                                                                                                           
+ *  limitations under the License. 
+ */
+
+package glade.grammar.synthesize;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import glade.util.Log;
+import glade.util.OracleUtils.DiscriminativeOracle;
+
+public class SeedMinimization {
+	// delta debugging (complements only): splits the example into n chunks and keeps the first valid example with
+	// one chunk removed, doubling n when no removal is valid, until the chunks are single characters
+	public static String getMinimized(String example, DiscriminativeOracle oracle) {
+		long time = System.currentTimeMillis();
+		String cur = example;
+		int n = 2;
+		while(cur.length() >= 2) {
+			int chunks = Math.min(n, cur.length());
+			List<String> candidates = new ArrayList<String>();
+			for(int i=0; i<chunks; i++) {
+				int start = i*cur.length()/chunks;
+				int end = (i+1)*cur.length()/chunks;
+				candidates.add(cur.substring(0, start) + cur.substring(end));
+			}
+			int index = getFirstValid(candidates, oracle);
+			if(index != -1) {
+				cur = candidates.get(index);
+				n = Math.max(chunks-1, 2);
+			} else if(chunks < cur.length()) {
+				n = Math.min(2*chunks, cur.length());
+			} else {
+				break;
+			}
+		}
+		Log.info("MINIMIZED SEED: " + example.length() + " -> " + cur.length() + " in " + (System.currentTimeMillis() - time) + "ms");
+		return cur;
+	}
+	
+	// the removals are sent in batches of getParallelism(), stopping after the first batch with a valid candidate
+	private static int getFirstValid(List<String> candidates, DiscriminativeOracle oracle) {
+		int batchSize = Math.max(1, oracle.getParallelism());
+		for(int i=0; i<candidates.size(); i+=batchSize) {
+			List<Boolean> results = oracle.queryAll(candidates.subList(i, Math.min(i+batchSize, candidates.size())));
+			for(int j=0; j<results.size(); j++) {
+				if(results.get(j)) {
+					return i+j;
+				}
+			}
+		}
+		return -1;
+	}
+}
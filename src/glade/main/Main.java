@@ -39,6 +39,7 @@ import glade.program.ComputeStatistics;
 import glade.program.LearnerDataUtils;
 import glade.util.Log;
 import glade.util.Utils;
+import glade.util.EstimationUtils.EstimationParameters;
 import glade.util.OracleUtils.HybridOracle;
 import glade.util.Utils.Callback;
 
@@ -68,15 +69,15 @@ public class Main {
 	}
 	
 	public static LearnerSettings getDefaultLearnerSettings(int numSamples, int maxLength) {
-		return new LearnerSettings(numSamples, maxLength, true, true);
+		return new LearnerSettings(numSamples, maxLength, true, true, Files.MINIMIZE_SEEDS, Files.CLUSTER_SEEDS, Files.NUM_WORKERS);
 	}
 	
 	public static LearnerSettings getDefaultLearnerSettings(int numSamples) {
-		return new LearnerSettings(numSamples, 100, true, true);
+		return new LearnerSettings(numSamples, 100, true, true, Files.MINIMIZE_SEEDS, Files.CLUSTER_SEEDS, Files.NUM_WORKERS);
 	}
 	
 	public static LearnerSettings getDefaultLearnerSettings() {
-		return new LearnerSettings(50, 100, true, true);
+		return new LearnerSettings(50, 100, true, true, Files.MINIMIZE_SEEDS, Files.CLUSTER_SEEDS, Files.NUM_WORKERS);
 	}
 	
 	public static SampleParameters getDefaultSampleParameters() {
@@ -131,24 +132,29 @@ public class Main {
 		public void run(FuzzSettings fuzz, Fuzzer fuzzer, Fuzzer remove, ProgramSettings program, SyntheticSettings synthetic, SyntheticLearner syntheticLearner, SyntheticGrammar syntheticGrammar, LearnerDataSettings learnerData, CompareSettings compare, Processor processor, LearnerSettings learner, LongRunningSettings longRunning, Callback filterCallback, Random random) {
 			switch(this) {
 			case LEARN:
-				LearnerDataUtils.learnAllGrammar(learnerData.learnerData, program.name, program.data, program.examples, learner.ignoreErrors, learner.useCharacterClasses);
+				program.data.calibrate(program.examples.getTrainExamples());
+				LearnerDataUtils.learnAllGrammar(learnerData.learnerData, program.name, program.data, program.examples, learner.ignoreErrors, learner.useCharacterClasses, learner.minimizeSeeds, learner.clusterSeeds, learner.numThreads);
 				break;
 			case LEARN_RPNI:
+				program.data.calibrate(program.examples.getTrainExamples());
 				LearnerDataUtils.learnRpni(learnerData.learnerData, learner, program.name, program.data, program.examples, random);
 				break;
 			case LEARN_LSTAR:
+				program.data.calibrate(program.examples.getTrainExamples());
 				LearnerDataUtils.learnLstar(learnerData.learnerData, learner, program.name, program.data, program.examples, random);
 				break;
 			case FUZZER:
+				program.data.calibrate(program.examples.getTrainExamples());
 				Iterable<String> fuzzSamples = processor.getFilteredSamples(program.data.getQueryOracle(), fuzz, fuzzer.getSamples(program, learner, fuzz, learnerData, random), filterCallback);
 				RunProgram.runCoverage(program.data, fuzzSamples, remove.getSamples(program, learner, fuzz, learnerData, random), fuzz.recordIters);
 				break;
 			case LONG_RUNNING:
+				program.data.calibrate(program.examples.getTrainExamples());
 				Iterable<String> longRunningSamples = processor.getFilteredSamples(program.data.getQueryOracle(), fuzz, fuzzer.getSamples(program, learner, fuzz, learnerData, random), filterCallback);
 				RunProgram.runTiming(program.data, longRunningSamples, program.examples.getTrainExamples(), longRunning.numIters, longRunning.numQueue, /*fuzz.recordIters*/10);
 				break;
 			case FALSE_NEGATIVE_RATE:
-				ComputeStatistics.getFalseNegativeRate(LearnerDataUtils.loadAllGrammar(learnerData.learnerData, program.name), fuzzer.getSamples(program, learner, fuzz, learnerData, random), fuzz.maxLength);
+				ComputeStatistics.estimateFalseNegativeRate(LearnerDataUtils.loadAllGrammar(learnerData.learnerData, program.name), fuzzer.getSamples(program, learner, fuzz, learnerData, random), fuzz.maxLength, new EstimationParameters(Files.NUM_WORKERS, Files.ESTIMATE_HALF_WIDTH));
 				break;
 			case GRAMMAR_SIZE:
 				ComputeStatistics.getGrammarSize(LearnerDataUtils.loadAllGrammar(learnerData.learnerData, program.name));
@@ -162,7 +168,7 @@ public class Main {
 			case SYNTHETIC:
 				Log.info("SIZE: " + ComputeStatistics.getMultiGrammarSize(syntheticGrammar.getGrammar()));
 				HybridOracle oracle = RunSynthetic.getTrainSynthetic(syntheticLearner.getOracleLearner(program, learner, fuzz, random),  learnerData.learnerData, syntheticGrammar.getGrammar(), synthetic.boxSize, synthetic.numTrainExamples, synthetic.numTestExamples, fuzz.sample, synthetic.maxLength, filterCallback, random);
-				RunSynthetic.getTestSynthetic(oracle, learnerData.learnerData, syntheticGrammar.getGrammar(), synthetic.boxSize, synthetic.numTrainExamples, synthetic.numTestExamples, fuzz.sample, synthetic.maxLength, filterCallback, random);
+				RunSynthetic.getTestSynthetic(oracle, learnerData.learnerData, syntheticGrammar.getGrammar(), synthetic.boxSize, synthetic.numTrainExamples, synthetic.numTestExamples, fuzz.sample, synthetic.maxLength, filterCallback, random, new EstimationParameters(Files.NUM_WORKERS, Files.ESTIMATE_HALF_WIDTH));
 				break;
 			case BUILD_AFL:
 				LearnerDataUtils.buildAflQueueAll(learnerData.learnerData, program.name, program.data, program.examples, fuzz.numIters + program.examples.getTrainExamples().size());
@@ -385,6 +391,8 @@ public class Main {
 				program = Program.PYTHON_WRAPPED;
 			} else if(args[1].equals("js")) {
 				program = Program.FFJS;
+			} else if(args[1].equals("jvm")) {
+				program = Program.JVM;
 			} else {
 				usage();
 			}
@@ -27,6 +27,7 @@ import glade.automaton.AutomatonUtils.WrappedLearner;
 import glade.grammar.GrammarToNormalGrammar;
 import glade.grammar.GrammarUtils.Node;
 import glade.grammar.GrammarUtils.NodeMerges;
+import glade.grammar.MultiGrammarUtils.ChartSolver;
 import glade.grammar.MultiGrammarUtils.MultiGrammar;
 import glade.grammar.MultiGrammarUtils.NormalGrammar;
 import glade.grammar.MultiGrammarUtils.NormalGrammarOracle;
@@ -34,10 +35,16 @@ import glade.grammar.fuzz.GrammarFuzzer.GrammarSampler;
 import glade.grammar.fuzz.GrammarFuzzer.SampleParameters;
 import glade.grammar.fuzz.MultiGrammarFuzzer.MultiGrammarSampler;
 import glade.grammar.synthesize.GrammarSynthesis;
+import glade.grammar.synthesize.SeedClustering;
 import glade.program.LearnerDataUtils;
 import glade.program.LearnerDataUtils.LearnerDataParameters;
+import glade.util.EstimationUtils;
 import glade.util.LearnerUtils;
 import glade.util.Log;
+import glade.util.ParallelUtils;
+import glade.util.EstimationUtils.Checker;
+import glade.util.EstimationUtils.EstimationParameters;
+import glade.util.EstimationUtils.RateEstimate;
 import glade.util.IteratorUtils.FilteredIterable;
 import glade.util.IteratorUtils.RandomSampleIterator;
 import glade.util.IteratorUtils.SampleIterable;
@@ -76,6 +83,15 @@ public class RunSynthetic {
 		public boolean query(String query) {
 			return this.oracle.query(query);
 		}
+		public List<Boolean> queryAll(List<String> queries) {
+			return this.oracle.queryAll(queries);
+		}
+		public boolean queryAllValid(List<String> queries) {
+			return this.oracle.queryAllValid(queries);
+		}
+		public int getParallelism() {
+			return this.oracle.getParallelism();
+		}
 		public Pair<Node,NodeMerges> getNodeGrammar() {
 			return this.pair;
 		}
@@ -86,13 +102,18 @@ public class RunSynthetic {
 	
 	public static class GrammarSynthesisOracleLearner implements OracleLearner<NodeGrammarOracle> {
 		private final SampleParameters parameters;
+		private final boolean clusterSeeds;
 		private final Random random;
-		public GrammarSynthesisOracleLearner(SampleParameters parameters, Random random) {
+		public GrammarSynthesisOracleLearner(SampleParameters parameters, boolean clusterSeeds, Random random) {
 			this.parameters = parameters;
+			this.clusterSeeds = clusterSeeds;
 			this.random = random;
 		}
+		public GrammarSynthesisOracleLearner(SampleParameters parameters, Random random) {
+			this(parameters, false, random);
+		}
 		public NodeGrammarOracle learn(List<String> examples, DiscriminativeOracle oracle) {
-			return new NodeGrammarOracle(GrammarSynthesis.getGrammarMultiple(examples, oracle, true, true), this.parameters, this.random);
+			return new NodeGrammarOracle(this.clusterSeeds ? GrammarSynthesis.getGrammarMultipleClustered(examples, oracle, true, true, SeedClustering.SIMILARITY_THRESHOLD) : GrammarSynthesis.getGrammarMultiple(examples, oracle, true, true), this.parameters, this.random);
 		}
 	}
 	
@@ -110,13 +131,18 @@ public class RunSynthetic {
 
 	public static class NoConstantGrammarSynthesisOracleLearner implements OracleLearner<NodeGrammarOracle> {
 		private final SampleParameters parameters;
+		private final boolean clusterSeeds;
 		private final Random random;
-		public NoConstantGrammarSynthesisOracleLearner(SampleParameters parameters, Random random) {
+		public NoConstantGrammarSynthesisOracleLearner(SampleParameters parameters, boolean clusterSeeds, Random random) {
 			this.parameters = parameters;
+			this.clusterSeeds = clusterSeeds;
 			this.random = random;
 		}
+		public NoConstantGrammarSynthesisOracleLearner(SampleParameters parameters, Random random) {
+			this(parameters, false, random);
+		}
 		public NodeGrammarOracle learn(List<String> examples, DiscriminativeOracle oracle) {
-			return new NodeGrammarOracle(GrammarSynthesis.getGrammarMultiple(examples, oracle, false, true), this.parameters, this.random);
+			return new NodeGrammarOracle(this.clusterSeeds ? GrammarSynthesis.getGrammarMultipleClustered(examples, oracle, false, true, SeedClustering.SIMILARITY_THRESHOLD) : GrammarSynthesis.getGrammarMultiple(examples, oracle, false, true), this.parameters, this.random);
 		}
 	}
 	
@@ -232,42 +258,38 @@ public class RunSynthetic {
 		return t;
 	}
 
-	public static Pair<Double,Double> getTestSynthetic(HybridOracle learner, LearnerDataParameters dataParameters, MultiGrammar grammar, int boxSize, int numTrainSamples, int numTestSamples, SampleParameters sampleParameters, final int maxLength, Callback filterCallback, Random random) {
+	public static Pair<Double,Double> getTestSynthetic(final HybridOracle learner, LearnerDataParameters dataParameters, MultiGrammar grammar, int boxSize, int numTrainSamples, int numTestSamples, SampleParameters sampleParameters, final int maxLength, Callback filterCallback, Random random, EstimationParameters estimationParameters) {
 		// STEP 1: Set up oracle grammar sampler
-		Iterator<String> oracleIterator = new FilteredIterable<String>(new SampleIterable(new MultiGrammarSampler(grammar, boxSize, random)), new Filter<String>() { public boolean filter(String s) { return s.length() < maxLength; }}, filterCallback).iterator();
+		final Iterator<String> oracleIterator = new FilteredIterable<String>(new SampleIterable(new MultiGrammarSampler(grammar, boxSize, random)), new Filter<String>() { public boolean filter(String s) { return s.length() < maxLength; }}, filterCallback).iterator();
 		
-		// STEP 2: Set up oracle
-		DiscriminativeOracle oracle = new NormalGrammarOracle(new NormalGrammar(grammar));
+		// STEP 2: Set up oracle (one stateless solver shared by every thread)
+		final ChartSolver oracleSolver = new ChartSolver(new NormalGrammar(grammar));
 		
-		// STEP 3: Get false negative rate
-		int fn = 0;
-		for(int i=0; i<numTestSamples; i++) {
-			// STEP 5a: Get sample
-			String sample = sample(oracleIterator);
+		// STEP 3: Get false negative rate (samples are drawn in order, then checked in parallel)
+		Iterator<String> oracleSamples = new Iterator<String>() {
+			public boolean hasNext() { return true; }
+			public String next() { return sample(oracleIterator); }
+		};
+		Checker<String> learnerChecker = new Checker<String>() { public boolean isFailure(String sample) { return !learner.query(sample); }};
+		EstimationParameters learnerParameters = new EstimationParameters(Math.min(estimationParameters.numThreads, learner.getParallelism()), estimationParameters.maxHalfWidth);
+		RateEstimate fn = EstimationUtils.estimate(oracleSamples, numTestSamples, learnerChecker, learnerParameters);
 			
-			// STEP 5b: Check sample
-			if(!learner.query(sample)) {
-				fn++;
-			}
-			Log.info("CUR: " + fn + ", " + i);
-		}
+		// STEP 4: Get false positive rate
+		Iterator<String> learnerSamples = new Iterator<String>() {
+			public boolean hasNext() { return true; }
+			public String next() { return learner.sample(); }
+		};
+		Checker<String> oracleChecker = new Checker<String>() { public boolean isFailure(String sample) { return !oracleSolver.solve(sample.toCharArray()); }};
+		RateEstimate fp = EstimationUtils.estimate(learnerSamples, numTestSamples, oracleChecker, estimationParameters);
 		
-		// STEP 7: Get false positive/negative rate
-		int fp = 0;
-		for(int i=0; i<numTestSamples; i++) {
-			// STEP 7a: Get sample
-			String sample = learner.sample();
-			
-			// STEP 7b: Check sample
-			if(!oracle.query(sample)) {
-				fp++;
-			}
-			Log.info("CUR: " + fp + ", " + i);
-		}
-		Pair<Double,Double> pair = new Pair<Double,Double>((double)fn/numTestSamples, (double)fp/numTestSamples);
-		Log.info("FN RATE: " + pair.getX());
-		Log.info("FP RATE: " + pair.getY());
+		Pair<Double,Double> pair = new Pair<Double,Double>(fn.getRate(), fp.getRate());
+		Log.info("FN RATE: " + fn);
+		Log.info("FP RATE: " + fp);
 		
 		return pair;
 	}
+	
+	public static Pair<Double,Double> getTestSynthetic(HybridOracle learner, LearnerDataParameters dataParameters, MultiGrammar grammar, int boxSize, int numTrainSamples, int numTestSamples, SampleParameters sampleParameters, final int maxLength, Callback filterCallback, Random random) {
+		return getTestSynthetic(learner, dataParameters, grammar, boxSize, numTrainSamples, numTestSamples, sampleParameters, maxLength, filterCallback, random, new EstimationParameters(ParallelUtils.NUM_PROCESSORS, 0.0));
+	}
 }
@@ -16,6 +16,7 @@
 package glade.program;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -25,16 +26,25 @@ import glade.grammar.GrammarToNormalGrammar;
 import glade.grammar.GrammarUtils;
 import glade.grammar.GrammarUtils.Node;
 import glade.grammar.GrammarUtils.NodeMerges;
+import glade.grammar.MultiGrammarUtils.ChartSolver;
 import glade.grammar.MultiGrammarUtils.MultiGrammar;
 import glade.grammar.MultiGrammarUtils.NormalGrammar;
-import glade.grammar.MultiGrammarUtils.Solver;
 import glade.grammar.fuzz.GrammarFuzzer;
 import glade.grammar.fuzz.GrammarFuzzer.SampleParameters;
 import glade.program.ProgramDataUtils.ProgramData;
 import glade.program.ProgramDataUtils.ProgramExamples;
 import glade.program.ProgramOracleUtils.CoverInfo;
+import glade.util.EstimationUtils;
 import glade.util.Log;
+import glade.util.ParallelUtils;
+import glade.util.EstimationUtils.Checker;
+import glade.util.EstimationUtils.EstimationParameters;
+import glade.util.EstimationUtils.Generator;
+import glade.util.EstimationUtils.RateEstimate;
+import glade.util.IteratorUtils.DefaultCallback;
+import glade.util.IteratorUtils.FilteredIterable;
 import glade.util.OracleUtils.DiscriminativeOracle;
+import glade.util.Utils.Filter;
 import glade.util.Utils.Pair;
 import glade.util.Utils.Triple;
 
@@ -79,38 +89,49 @@ public class ComputeStatistics {
 		return counter;
 	}
 	
-	public static double getFalseNegativeRate(Pair<Node,NodeMerges> pair, Iterable<String> samples, int maxLength) {
-		NormalGrammar grammar = GrammarToNormalGrammar.transform(pair);
-		int count = 0;
-		int totalCount = 0;
-		for(String sample : samples) {
-			if(sample.length() <= maxLength) {
-				if(!(new Solver().solve(grammar, sample.toCharArray()))) {
+	public static RateEstimate estimateFalseNegativeRate(Pair<Node,NodeMerges> pair, Iterable<String> samples, final int maxLength, EstimationParameters parameters) {
+		// the samples are unrelated, so prefix charts would not pay off; one stateless solver serves every thread
+		final ChartSolver solver = new ChartSolver(GrammarToNormalGrammar.transform(pair));
+		Iterator<String> iterator = new FilteredIterable<String>(samples, new Filter<String>() { public boolean filter(String s) { return s.length() <= maxLength; }}, new DefaultCallback()).iterator();
+		Checker<String> checker = new Checker<String>() {
+			public boolean isFailure(String sample) {
+				if(!solver.solve(sample.toCharArray())) {
 					Log.info(sample);
-					count++;
+					return true;
 				}
-				totalCount++;
+				return false;
 			}
-		}
-		return (double)count/totalCount;
+		};
+		return EstimationUtils.estimate(iterator, Long.MAX_VALUE, checker, parameters);
 	}
 	
-	public static double getFalsePositiveRate(Pair<Node,NodeMerges> pair, DiscriminativeOracle oracle, SampleParameters parameters, int numSamples, Random random) throws Exception {
-		int count = 0;
-		for(int i=0; i<numSamples; i++) {
-			String sample = GrammarFuzzer.sample(pair.getX(), pair, parameters, random).getExample();
-			if(!oracle.query(sample)) {
-				count++;
+	public static double getFalseNegativeRate(Pair<Node,NodeMerges> pair, Iterable<String> samples, int maxLength) {
+		return estimateFalseNegativeRate(pair, samples, maxLength, new EstimationParameters(ParallelUtils.NUM_PROCESSORS, 0.0)).getRate();
+	}
+	
+	public static RateEstimate estimateFalsePositiveRate(final Pair<Node,NodeMerges> pair, final DiscriminativeOracle oracle, final SampleParameters parameters, int numSamples, long seed, EstimationParameters estimationParameters) {
+		Generator<String> generator = new Generator<String>() {
+			public String sample(Random random) {
+				return GrammarFuzzer.sample(pair.getX(), pair, parameters, random).getExample();
 			}
-		}
-		return (double)count/numSamples;
+		};
+		Checker<String> checker = new Checker<String>() {
+			public boolean isFailure(String sample) {
+				return !oracle.query(sample);
+			}
+		};
+		return EstimationUtils.estimate(generator, seed, numSamples, checker, estimationParameters);
+	}
+	
+	public static double getFalsePositiveRate(Pair<Node,NodeMerges> pair, DiscriminativeOracle oracle, SampleParameters parameters, int numSamples, Random random) throws Exception {
+		return estimateFalsePositiveRate(pair, oracle, parameters, numSamples, random.nextLong(), new EstimationParameters(oracle.getParallelism(), 0.0)).getRate();
 	}
 	
 	public static List<String> getXmlCheckErrors(Pair<Node,NodeMerges> pair) {
 		List<String> errors = new ArrayList<String>();
-		NormalGrammar grammar = GrammarToNormalGrammar.transform(pair);
+		ChartSolver solver = new ChartSolver(GrammarToNormalGrammar.transform(pair));
 		for(String sample : XmlData.getXmlChecks()) {
-			if(new Solver().solve(grammar, sample.toCharArray()) != XmlData.XML_DATA.getQueryOracle().query(sample)) {
+			if(solver.solve(sample.toCharArray()) != XmlData.XML_DATA.getQueryOracle().query(sample)) {
 				errors.add(sample);
 			}
 		}
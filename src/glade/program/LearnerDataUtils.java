@@ -15,15 +15,25 @@
 
 package glade.program;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import dk.brics.automaton.Automaton;
 import glade.automaton.AutomatonUtils.LStarLearner;
@@ -33,10 +43,16 @@ import glade.grammar.GrammarSerializer;
 import glade.grammar.GrammarUtils.Node;
 import glade.grammar.GrammarUtils.NodeMerges;
 import glade.grammar.synthesize.GrammarSynthesis;
+import glade.grammar.synthesize.SeedClustering;
 import glade.main.RunSynthetic.DiscriminativeAutomatonOracleLearner;
 import glade.main.RunSynthetic.InteractiveAutomatonOracleLearner;
 import glade.program.ProgramDataUtils.ProgramData;
 import glade.program.ProgramDataUtils.ProgramExamples;
+import glade.util.Log;
+import glade.util.OracleUtils.DiscriminativeOracle;
+import glade.util.OracleUtils.LimitedParallelismDiscriminativeOracle;
+import glade.util.ParallelUtils;
+import glade.util.ParallelUtils.DaemonThreadFactory;
 import glade.util.RandomUtils.RandomExtra;
 import glade.util.Utils.Pair;
 
@@ -88,8 +104,15 @@ public class LearnerDataUtils {
 			if(parent != null) {
 				parent.mkdirs();
 			}
-			DataOutputStream dos = new DataOutputStream(new FileOutputStream(filename));
-			GrammarSerializer.serialize(pair.getX(), pair.getY(), dos);
+			// write to a temporary file and rename it, so a crash never leaves a truncated grammar behind
+			File tmp = new File(filename + ".tmp");
+			DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			try {
+				GrammarSerializer.serialize(pair.getX(), pair.getY(), dos);
+			} finally {
+				dos.close();
+			}
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
 		} catch(IOException e) {
 			throw new RuntimeException(e);
 		}
@@ -97,8 +120,12 @@ public class LearnerDataUtils {
 	
 	public static Pair<Node,NodeMerges> loadGrammar(String filename) {
 		try {
-			DataInputStream dis = new DataInputStream(new FileInputStream(filename));
-			return GrammarSerializer.deserializeNodeWithMerges(dis);
+			DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(filename)));
+			try {
+				return GrammarSerializer.deserializeNodeWithMerges(dis);
+			} finally {
+				dis.close();
+			}
 		} catch(IOException e) {
 			throw new RuntimeException(e);
 		}
@@ -121,26 +148,115 @@ public class LearnerDataUtils {
 	}
 
 	public static void learnGrammar(LearnerDataParameters learnerData, String name, ProgramData data, ProgramExamples examples, boolean ignoreErrors, boolean useCharacterClasses, int index) {
-		String example = examples.getTrainExamples().get(index);
-		Pair<Node,NodeMerges> pair = (data.getQueryOracle().query(example) || !ignoreErrors) ? GrammarSynthesis.getGrammarSingle(example, data.getQueryOracle(), true, useCharacterClasses) : GrammarSynthesis.getGrammarConstant(example);
+		learnGrammar(learnerData, name, data, examples, ignoreErrors, useCharacterClasses, false, index);
+	}
+	
+	public static void learnGrammar(LearnerDataParameters learnerData, String name, ProgramData data, ProgramExamples examples, boolean ignoreErrors, boolean useCharacterClasses, boolean minimizeSeeds, int index) {
+		learnGrammar(learnerData, name, data.getQueryOracle(), examples.getTrainExamples().get(index), ignoreErrors, useCharacterClasses, minimizeSeeds, index);
+	}
+	
+	private static void learnGrammar(LearnerDataParameters learnerData, String name, DiscriminativeOracle oracle, String example, boolean ignoreErrors, boolean useCharacterClasses, boolean minimizeSeeds, int index) {
+		Pair<Node,NodeMerges> pair;
+		if(oracle.query(example) || !ignoreErrors) {
+			pair = minimizeSeeds ? GrammarSynthesis.getGrammarSingleMinimized(example, oracle, true, useCharacterClasses) : GrammarSynthesis.getGrammarSingle(example, oracle, true, useCharacterClasses);
+		} else {
+			pair = GrammarSynthesis.getGrammarConstant(example);
+		}
 		saveGrammar(learnerData, name, index, pair);
 	}
 	
 	public static void mergeGrammar(LearnerDataParameters learnerData, String name, ProgramData data, ProgramExamples examples) {
+		mergeGrammar(learnerData, name, data, examples, false);
+	}
+	
+	public static void mergeGrammar(LearnerDataParameters learnerData, String name, ProgramData data, ProgramExamples examples, boolean clusterSeeds) {
 		List<Node> roots = new ArrayList<Node>();
 		for(int i=0; i<examples.getTrainExamples().size(); i++) {
 			roots.add(LearnerDataUtils.loadGrammar(learnerData, name, i).getX());
 		}
-		Pair<Node,NodeMerges> pair = GrammarSynthesis.getGrammarMultipleFromRoots(roots, data.getQueryOracle());
+		Pair<Node,NodeMerges> pair = clusterSeeds
+				? GrammarSynthesis.getGrammarMultipleClusteredFromRoots(examples.getTrainExamples(), roots, data.getQueryOracle(), SeedClustering.SIMILARITY_THRESHOLD)
+				: GrammarSynthesis.getGrammarMultipleFromRoots(roots, data.getQueryOracle());
 		saveAllGrammar(learnerData, name, pair);
 	}
 	
+	public static void learnIncrementalGrammar(LearnerDataParameters learnerData, String name, ProgramData data, String example, boolean ignoreErrors, boolean useCharacterClasses) {
+		learnIncrementalGrammar(learnerData, name, data, example, ignoreErrors, useCharacterClasses, false);
+	}
+	
+	// learns example as the next seed and merges it into all.gram, without relearning or remerging the existing seeds
+	public static void learnIncrementalGrammar(LearnerDataParameters learnerData, String name, ProgramData data, String example, boolean ignoreErrors, boolean useCharacterClasses, boolean minimizeSeeds) {
+		int index = 0;
+		while(new File(getGrammarFilename(learnerData, name, index)).exists()) {
+			index++;
+		}
+		DiscriminativeOracle oracle = data.getQueryOracle();
+		learnGrammar(learnerData, name, oracle, example, ignoreErrors, useCharacterClasses, minimizeSeeds, index);
+		Node root = loadGrammar(learnerData, name, index).getX();
+		Pair<Node,NodeMerges> grammar;
+		if(new File(getAllGrammarFilename(learnerData, name)).exists()) {
+			grammar = GrammarSynthesis.getGrammarMultipleAddRoot(loadAllGrammar(learnerData, name), root, oracle);
+		} else {
+			// all.gram is missing (e.g., an earlier run died before saving it), so merge all the seeds learned so far
+			List<Node> roots = new ArrayList<Node>();
+			for(int i=0; i<index; i++) {
+				roots.add(loadGrammar(learnerData, name, i).getX());
+			}
+			roots.add(root);
+			grammar = GrammarSynthesis.getGrammarMultipleFromRoots(roots, oracle);
+		}
+		saveAllGrammar(learnerData, name, grammar);
+	}
+	
 	public static void learnAllGrammar(LearnerDataParameters learnerData, String name, ProgramData data, ProgramExamples examples, boolean ignoreErrors, boolean useCharacterClasses) {
+		learnAllGrammar(learnerData, name, data, examples, ignoreErrors, useCharacterClasses, false, false, 1);
+	}
+	
+	// seeds are learned on up to numThreads threads, but never more than the query oracle can serve at once;
+	// each thread gets its own oracle with an equal share of that concurrency, and saves its grammar as soon as it is done
+	public static void learnAllGrammar(final LearnerDataParameters learnerData, final String name, final ProgramData data, ProgramExamples examples, final boolean ignoreErrors, final boolean useCharacterClasses, final boolean minimizeSeeds, boolean clusterSeeds, int numThreads) {
 		clearGrammarDirectory(learnerData, name);
-		for(int i=0; i<examples.getTrainExamples().size(); i++) {
-			learnGrammar(learnerData, name, data, examples, ignoreErrors, useCharacterClasses, i);
+		final List<String> trainExamples = examples.getTrainExamples();
+		int parallelism = data.getQueryOracle().getParallelism();
+		final int numLearners = Math.max(1, Math.min(Math.min(numThreads, parallelism), trainExamples.size()));
+		if(numLearners == 1) {
+			DiscriminativeOracle oracle = data.getQueryOracle();
+			for(int i=0; i<trainExamples.size(); i++) {
+				learnGrammar(learnerData, name, oracle, trainExamples.get(i), ignoreErrors, useCharacterClasses, minimizeSeeds, i);
+			}
+		} else {
+			final int learnerParallelism = Math.max(1, parallelism/numLearners);
+			final BlockingQueue<DiscriminativeOracle> oracles = new LinkedBlockingQueue<DiscriminativeOracle>();
+			for(int i=0; i<numLearners; i++) {
+				oracles.add(new LimitedParallelismDiscriminativeOracle(data.getQueryOracle(), learnerParallelism));
+			}
+			ExecutorService executor = Executors.newFixedThreadPool(numLearners, new DaemonThreadFactory("glade-learn"));
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for(int i=0; i<trainExamples.size(); i++) {
+				final int index = i;
+				futures.add(executor.submit(new Callable<Void>() {
+					public Void call() throws InterruptedException {
+						DiscriminativeOracle oracle = oracles.take();
+						try {
+							learnGrammar(learnerData, name, oracle, trainExamples.get(index), ignoreErrors, useCharacterClasses, minimizeSeeds, index);
+							Log.info("LEARNED EXAMPLE: " + index);
+						} finally {
+							oracles.add(oracle);
+						}
+						return null;
+					}
+				}));
+			}
+			try {
+				for(Future<Void> future : futures) {
+					ParallelUtils.get(future);
+				}
+			} finally {
+				ParallelUtils.cancelAll(futures);
+				executor.shutdown();
+			}
 		}
-		mergeGrammar(learnerData, name, data, examples);
+		mergeGrammar(learnerData, name, data, examples, clusterSeeds);
 	}
 	
 	public static void clearAflQueueDirectory(LearnerDataParameters learnerData, String name) {
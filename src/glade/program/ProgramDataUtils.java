@@ -30,17 +30,33 @@ import glade.afl.AflOracleUtils.WrappedAflCoverageOracle;
 import glade.afl.AflOracleUtils.WrappedAflOracle;
 import glade.program.ProgramOracleUtils.CoverageOracle;
 import glade.program.ProgramOracleUtils.WrappedCoverageOracle;
+import glade.util.JvmUtils;
+import glade.util.Log;
+import glade.util.OracleUtils;
 import glade.util.Utils;
+import glade.util.JvmUtils.JvmVerdictOracle;
+import glade.util.OracleUtils.CachingDiscriminativeOracle;
 import glade.util.OracleUtils.DiscriminativeOracle;
 import glade.util.OracleUtils.WrappedDiscriminativeOracle;
 import glade.util.OracleUtils.Wrapper;
+import glade.util.ProcessUtils.AdaptiveTimeoutParameters;
+import glade.util.ProcessUtils.QueryTimeout;
+import glade.util.ProcessUtils.VerdictMode;
 import glade.util.ShellUtils.CommandFactory;
+import glade.util.ShellUtils.PooledShellOracle;
+import glade.util.ShellUtils.ScratchShellOracle;
+import glade.util.ShellUtils.ScratchShellVerdictOracle;
 import glade.util.ShellUtils.ShellCoverageOracle;
 import glade.util.ShellUtils.ShellDiscriminativeOracle;
 import glade.util.ShellUtils.ShellOracle;
 import glade.util.ShellUtils.SimpleCommandFactory;
+import glade.util.ShellUtils.VerdictDiscriminativeOracle;
 
 public class ProgramDataUtils {
+	public static enum OracleMode {
+		SIMPLE, POOLED, SCRATCH, VERDICT;
+	}
+	
 	public static class FileParameters {
 		public final String queryProg;
 		public final String gcovProg;
@@ -49,7 +65,14 @@ public class ProgramDataUtils {
 		public final long timeout;
 		public final String exampleTrainPath;
 		public final String exampleTestPath;
-		public FileParameters(String queryProg, String gcovProg, String aflProg, String filename, long timeout, String exampleTrainPath, String exampleTestPath) {
+		public final OracleMode oracleMode;
+		public final int numWorkers;
+		public final long cacheBytes;
+		public final String cachePath;
+		public final VerdictMode verdictMode;
+		public final AdaptiveTimeoutParameters adaptiveTimeout;
+		// adaptiveTimeout is null to use the fixed timeout for every query
+		public FileParameters(String queryProg, String gcovProg, String aflProg, String filename, long timeout, String exampleTrainPath, String exampleTestPath, OracleMode oracleMode, int numWorkers, long cacheBytes, String cachePath, VerdictMode verdictMode, AdaptiveTimeoutParameters adaptiveTimeout) {
 			this.queryProg = queryProg;
 			this.gcovProg = gcovProg;
 			this.aflProg = aflProg;
@@ -57,6 +80,15 @@ public class ProgramDataUtils {
 			this.timeout = timeout;
 			this.exampleTrainPath = exampleTrainPath;
 			this.exampleTestPath = exampleTestPath;
+			this.oracleMode = oracleMode;
+			this.numWorkers = numWorkers;
+			this.cacheBytes = cacheBytes;
+			this.cachePath = cachePath;
+			this.verdictMode = verdictMode;
+			this.adaptiveTimeout = adaptiveTimeout;
+		}
+		public FileParameters(String queryProg, String gcovProg, String aflProg, String filename, long timeout, String exampleTrainPath, String exampleTestPath) {
+			this(queryProg, gcovProg, aflProg, filename, timeout, exampleTrainPath, exampleTestPath, OracleMode.SIMPLE, 1, 0, null, VerdictMode.OUTPUT, null);
 		}
 	}
 	
@@ -65,6 +97,7 @@ public class ProgramDataUtils {
 		public abstract CoverageOracle getCoverageOracle();
 		public abstract AflCoverageOracle getAflCoverageOracle();
 		public abstract AflOracle getAflOrigOracle();
+		public abstract void calibrate(List<String> examples);
 	}
 	
 	public static interface ProgramExamples {
@@ -79,6 +112,9 @@ public class ProgramDataUtils {
 		private final String exePath;
 		private final String gcovPath;
 		private final boolean isError;
+		private final QueryTimeout timeout;
+		private PooledShellOracle pooledOracle = null;
+		private CachingDiscriminativeOracle cachingOracle = null;
 		
 		public ShellProgramData(FileParameters file, CommandFactory factory, String exePath, String gcovPath, boolean isError) {
 			this.file = file;
@@ -86,15 +122,62 @@ public class ProgramDataUtils {
 			this.exePath = exePath;
 			this.gcovPath = gcovPath;
 			this.isError = isError;
+			this.timeout = file.adaptiveTimeout == null ? new QueryTimeout(file.timeout) : new QueryTimeout(file.adaptiveTimeout);
 		}
 		
 		public ShellProgramData(FileParameters file, String exePath, String gcovPath, boolean isError) {
 			this(file, new SimpleCommandFactory(), exePath, gcovPath, isError);
 		}
 		
+		// the worker processes are shared by every oracle handed out by this program
+		private synchronized PooledShellOracle getPooledOracle() {
+			if(this.pooledOracle == null) {
+				this.pooledOracle = new PooledShellOracle(this.file.filename, this.factory, this.file.queryProg + File.separator + this.exePath, this.isError, this.timeout, this.file.numWorkers);
+			}
+			return this.pooledOracle;
+		}
+		
+		// the cache is shared by every oracle handed out by this program, and its log by every run on the same binary
+		public synchronized CachingDiscriminativeOracle getCachingOracle() {
+			if(this.cachingOracle == null) {
+				File logFile = this.file.cachePath == null ? null : OracleUtils.getCacheLogFile(new File(this.file.cachePath), this.exePath.replace(File.separatorChar, '_'), new File(this.file.queryProg, this.exePath));
+				this.cachingOracle = new CachingDiscriminativeOracle(this.getShellQueryOracle(), this.file.cacheBytes, logFile);
+			}
+			return this.cachingOracle;
+		}
+		
 		@Override
 		public DiscriminativeOracle getQueryOracle() {
-			return new ShellDiscriminativeOracle(new ShellOracle(this.file.filename, this.factory.getCommand(this.file.filename, this.file.queryProg + File.separator + this.exePath), this.isError, this.file.timeout));
+			return this.file.cacheBytes > 0 ? this.getCachingOracle() : this.getShellQueryOracle();
+		}
+		
+		private DiscriminativeOracle getShellQueryOracle() {
+			switch(this.file.oracleMode) {
+			case SIMPLE:
+				return new ShellDiscriminativeOracle(new ShellOracle(this.file.filename, this.factory.getCommand(this.file.filename, this.file.queryProg + File.separator + this.exePath), this.isError, this.timeout));
+			case POOLED:
+				return new ShellDiscriminativeOracle(this.getPooledOracle(), this.file.numWorkers);
+			case SCRATCH:
+				return new ShellDiscriminativeOracle(new ScratchShellOracle(this.file.filename, this.factory, this.file.queryProg + File.separator + this.exePath, this.isError, this.timeout), this.file.numWorkers);
+			case VERDICT:
+				return new VerdictDiscriminativeOracle(new ScratchShellVerdictOracle(this.file.filename, this.factory, this.file.queryProg + File.separator + this.exePath, this.isError, this.file.verdictMode, this.timeout), this.file.numWorkers);
+			default:
+				throw new RuntimeException();
+			}
+		}
+		
+		// runs the examples uncached so that the adaptive deadline starts from the measured latency of the target
+		@Override
+		public void calibrate(List<String> examples) {
+			if(!this.timeout.isAdaptive()) {
+				return;
+			}
+			this.getShellQueryOracle().queryAll(examples);
+			Log.info("CALIBRATED TIMEOUT: " + this.timeout.getTimeoutMillis() + "ms");
+		}
+		
+		public QueryTimeout getTimeout() {
+			return this.timeout;
 		}
 
 		@Override
@@ -113,6 +196,61 @@ public class ProgramDataUtils {
 		}
 	}
 	
+	// runs a Java-implemented target inside this JVM; coverage is only available for shell programs
+	public static class JvmProgramData implements ProgramData {
+		private final FileParameters file;
+		private final String classpath;
+		private final String className;
+		private final String methodName;
+		private final int numThreads;
+		private JvmVerdictOracle oracle = null;
+		
+		// classpath entries are relative to the query program directory; numThreads > 1 requires a thread-safe entry point
+		public JvmProgramData(FileParameters file, String classpath, String className, String methodName, int numThreads) {
+			this.file = file;
+			this.classpath = classpath;
+			this.className = className;
+			this.methodName = methodName;
+			this.numThreads = numThreads;
+		}
+		
+		// the target is loaded once and shared by every oracle handed out by this program
+		private synchronized JvmVerdictOracle getVerdictOracle() {
+			if(this.oracle == null) {
+				String[] entries = this.classpath.split(File.pathSeparator);
+				File[] files = new File[entries.length];
+				for(int i=0; i<entries.length; i++) {
+					files[i] = new File(this.file.queryProg, entries[i]);
+				}
+				this.oracle = new JvmVerdictOracle(JvmUtils.getIsolatedClassLoader(files), this.className, this.methodName, this.file.timeout, this.numThreads);
+			}
+			return this.oracle;
+		}
+		
+		@Override
+		public DiscriminativeOracle getQueryOracle() {
+			return new VerdictDiscriminativeOracle(this.getVerdictOracle(), this.numThreads);
+		}
+		
+		@Override
+		public CoverageOracle getCoverageOracle() {
+			throw new RuntimeException("Coverage is not available for in-process programs!");
+		}
+		
+		@Override
+		public AflCoverageOracle getAflCoverageOracle() {
+			throw new RuntimeException("Coverage is not available for in-process programs!");
+		}
+		
+		@Override
+		public AflOracle getAflOrigOracle() {
+			throw new RuntimeException("AFL is not available for in-process programs!");
+		}
+		
+		@Override
+		public void calibrate(List<String> examples) {}
+	}
+	
 	public static class WrappedProgramData implements ProgramData {
 		private final ProgramData data;
 		private final Wrapper wrapper;
@@ -141,6 +279,15 @@ public class ProgramDataUtils {
 		public AflOracle getAflOrigOracle() {
 			return new WrappedAflOracle(this.data.getAflOrigOracle(), this.wrapper);
 		}
+		
+		@Override
+		public void calibrate(List<String> examples) {
+			List<String> wrappedExamples = new ArrayList<String>();
+			for(String example : examples) {
+				wrappedExamples.add(this.wrapper.wrap(example));
+			}
+			this.data.calibrate(wrappedExamples);
+		}
 	}
 	
 	public static class SingleFileProgramExamples implements ProgramExamples {
@@ -16,7 +16,12 @@
 package glade.program;
 
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 
+import glade.util.ParallelUtils;
+import glade.util.ParallelUtils.BoundedExecutor;
 import glade.util.OracleUtils.Wrapper;
 import glade.util.Utils.AndFilter;
 import glade.util.Utils.ConstantFilter;
@@ -29,6 +34,54 @@ public class ProgramOracleUtils {
 		public String execute(String query);
 	}
 	
+	public static enum Verdict {
+		VALID, INVALID, CRASH, TIMEOUT;
+	}
+	
+	public interface VerdictOracle {
+		public Verdict classify(String query);
+	}
+	
+	public interface AsyncOracle {
+		public CompletableFuture<String> executeAsync(String query);
+	}
+	
+	public static class ExecutorAsyncOracle implements AsyncOracle {
+		private final Oracle oracle;
+		private final Executor executor;
+		
+		public ExecutorAsyncOracle(Oracle oracle, Executor executor) {
+			this.oracle = oracle;
+			this.executor = executor;
+		}
+		
+		public ExecutorAsyncOracle(Oracle oracle, int maxConcurrency) {
+			this(oracle, new BoundedExecutor("glade-async-oracle", maxConcurrency));
+		}
+		
+		@Override
+		public CompletableFuture<String> executeAsync(final String query) {
+			return CompletableFuture.supplyAsync(new Supplier<String>() {
+				public String get() {
+					return oracle.execute(query);
+				}
+			}, this.executor);
+		}
+	}
+	
+	public static class BlockingOracle implements Oracle {
+		private final AsyncOracle oracle;
+		
+		public BlockingOracle(AsyncOracle oracle) {
+			this.oracle = oracle;
+		}
+		
+		@Override
+		public String execute(String query) {
+			return ParallelUtils.get(this.oracle.executeAsync(query));
+		}
+	}
+	
 	public static interface CoverInfo {
 		public abstract boolean isCovered();
 		public abstract boolean isCoverable();
@@ -0,0 +1,250 @@
+/*  Copyright 2015-2017 Stanford University                                                                                                                                       
+ *                                                                                                                                                                               
+ *  Licensed under the Apache License, Version 2.0 (the "License");                                                                                                               
+ *  you may not use this file except in compliance with the License.                                                                                                              
+ *  You may obtain a copy of the License at                                                                                                                                       
+                                                                                                                                                                                
+ *      http://www.apache.org/licenses/LICENSE-2.0                                                                                                                                
+                                                                                                                                                                                
+ *  Unless required by applicable law or agreed to in writing, software                                                                                                           
+ *  distributed under the License is distributed on an "AS IS" BASIS,                                                                                                             
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.                                                                                                      
+ *  See the License for the specific language governing permissions and                                                                                                           
+ *  limitations under the License. 
+ */
+
+package glade.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+public class EstimationUtils {
+	private static final int CHUNK_SIZE = 16; // samples per fork/join leaf; generated samples use one random stream per chunk
+	private static final int BATCH_SIZE = 256; // samples between convergence checks
+	private static final int MIN_SAMPLES = 100; // samples before the interval is trusted for early stopping
+	private static final double Z = 1.96; // 95% confidence
+	
+	public static class RateEstimate {
+		public final long numFailures;
+		public final long numSamples;
+		
+		public RateEstimate(long numFailures, long numSamples) {
+			this.numFailures = numFailures;
+			this.numSamples = numSamples;
+		}
+		
+		public double getRate() {
+			return (double)this.numFailures/this.numSamples;
+		}
+		
+		// half width of the Wilson score interval, which stays sensible for rates near 0 or 1
+		public double getHalfWidth() {
+			if(this.numSamples == 0) {
+				return 0.5;
+			}
+			double n = this.numSamples;
+			double p = this.getRate();
+			return Z*Math.sqrt(p*(1.0-p)/n + Z*Z/(4.0*n*n))/(1.0 + Z*Z/n);
+		}
+		
+		public double getCenter() {
+			if(this.numSamples == 0) {
+				return 0.5;
+			}
+			double n = this.numSamples;
+			return (this.getRate() + Z*Z/(2.0*n))/(1.0 + Z*Z/n);
+		}
+		
+		public double getLowerBound() {
+			return Math.max(0.0, this.getCenter() - this.getHalfWidth());
+		}
+		
+		public double getUpperBound() {
+			return Math.min(1.0, this.getCenter() + this.getHalfWidth());
+		}
+		
+		@Override
+		public String toString() {
+			return this.getRate() + " [" + this.getLowerBound() + ", " + this.getUpperBound() + "] (" + this.numFailures + "/" + this.numSamples + ")";
+		}
+	}
+	
+	// shared by all worker threads
+	public static interface Checker<T> {
+		public boolean isFailure(T sample);
+	}
+	
+	// shared by all worker threads
+	public static interface Generator<T> {
+		public T sample(Random random);
+	}
+	
+	public static class EstimationParameters {
+		public final int numThreads;
+		public final double maxHalfWidth; // stop once the interval is this narrow; 0 uses every sample
+		
+		public EstimationParameters(int numThreads, double maxHalfWidth) {
+			this.numThreads = numThreads;
+			this.maxHalfWidth = maxHalfWidth;
+		}
+	}
+	
+	private static abstract class Batch<T> {
+		protected final int numSamples;
+		
+		protected Batch(int numSamples) {
+			this.numSamples = numSamples;
+		}
+		
+		protected int getNumChunks() {
+			return (this.numSamples + CHUNK_SIZE - 1)/CHUNK_SIZE;
+		}
+		
+		protected abstract int countFailures(int chunk, Checker<T> checker);
+	}
+	
+	private static class SampleBatch<T> extends Batch<T> {
+		private final List<T> samples;
+		
+		private SampleBatch(List<T> samples) {
+			super(samples.size());
+			this.samples = samples;
+		}
+		
+		@Override
+		protected int countFailures(int chunk, Checker<T> checker) {
+			int count = 0;
+			for(int i=chunk*CHUNK_SIZE; i<Math.min((chunk+1)*CHUNK_SIZE, this.numSamples); i++) {
+				if(checker.isFailure(this.samples.get(i))) {
+					count++;
+				}
+			}
+			return count;
+		}
+	}
+	
+	// the random stream of a chunk depends only on the seed and the chunk's position, not on the thread running it
+	private static class GeneratedBatch<T> extends Batch<T> {
+		private final Generator<? extends T> generator;
+		private final long seed;
+		private final long firstChunk;
+		
+		private GeneratedBatch(Generator<? extends T> generator, long seed, long firstChunk, int numSamples) {
+			super(numSamples);
+			this.generator = generator;
+			this.seed = seed;
+			this.firstChunk = firstChunk;
+		}
+		
+		@Override
+		protected int countFailures(int chunk, Checker<T> checker) {
+			Random random = new Random(getChunkSeed(this.seed, this.firstChunk + chunk));
+			int count = 0;
+			for(int i=chunk*CHUNK_SIZE; i<Math.min((chunk+1)*CHUNK_SIZE, this.numSamples); i++) {
+				if(checker.isFailure(this.generator.sample(random))) {
+					count++;
+				}
+			}
+			return count;
+		}
+	}
+	
+	// splitmix64 finalizer, so that neighboring chunks get unrelated seeds
+	private static long getChunkSeed(long seed, long chunk) {
+		long z = seed + (chunk + 1)*0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30))*0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27))*0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+	
+	private static class CountTask<T> extends RecursiveTask<Integer> {
+		private static final long serialVersionUID = 1L;
+		private final Batch<T> batch;
+		private final Checker<T> checker;
+		private final int firstChunk;
+		private final int lastChunk;
+		
+		private CountTask(Batch<T> batch, Checker<T> checker, int firstChunk, int lastChunk) {
+			this.batch = batch;
+			this.checker = checker;
+			this.firstChunk = firstChunk;
+			this.lastChunk = lastChunk;
+		}
+		
+		@Override
+		protected Integer compute() {
+			if(this.lastChunk - this.firstChunk == 1) {
+				return this.batch.countFailures(this.firstChunk, this.checker);
+			}
+			int mid = (this.firstChunk + this.lastChunk)/2;
+			CountTask<T> first = new CountTask<T>(this.batch, this.checker, this.firstChunk, mid);
+			first.fork();
+			int count = new CountTask<T>(this.batch, this.checker, mid, this.lastChunk).compute();
+			return count + first.join();
+		}
+	}
+	
+	private static abstract class BatchSource<T> {
+		// returns null when there are no more samples
+		protected abstract Batch<T> next(long numSamples, int maxSamples);
+	}
+	
+	private static <T> RateEstimate estimate(BatchSource<T> source, long maxSamples, Checker<T> checker, EstimationParameters parameters) {
+		ForkJoinPool pool = parameters.numThreads > 1 ? new ForkJoinPool(parameters.numThreads) : null;
+		long numFailures = 0;
+		long numSamples = 0;
+		RateEstimate estimate = new RateEstimate(0, 0);
+		try {
+			while(numSamples < maxSamples) {
+				Batch<T> batch = source.next(numSamples, (int)Math.min(BATCH_SIZE, maxSamples - numSamples));
+				if(batch == null || batch.getNumChunks() == 0) {
+					break;
+				}
+				if(pool == null) {
+					for(int chunk=0; chunk<batch.getNumChunks(); chunk++) {
+						numFailures += batch.countFailures(chunk, checker);
+					}
+				} else {
+					numFailures += pool.invoke(new CountTask<T>(batch, checker, 0, batch.getNumChunks()));
+				}
+				numSamples += batch.numSamples;
+				estimate = new RateEstimate(numFailures, numSamples);
+				Log.info("ESTIMATE: " + estimate);
+				if(parameters.maxHalfWidth > 0.0 && numSamples >= MIN_SAMPLES && estimate.getHalfWidth() <= parameters.maxHalfWidth) {
+					break;
+				}
+			}
+		} finally {
+			if(pool != null) {
+				pool.shutdown();
+			}
+		}
+		return estimate;
+	}
+	
+	// the samples are drawn on the calling thread, in order, and checked in parallel
+	public static <T> RateEstimate estimate(final Iterator<? extends T> samples, long maxSamples, Checker<T> checker, EstimationParameters parameters) {
+		return estimate(new BatchSource<T>() {
+			protected Batch<T> next(long numSamples, int maxSamples) {
+				List<T> batch = new ArrayList<T>();
+				while(batch.size() < maxSamples && samples.hasNext()) {
+					batch.add(samples.next());
+				}
+				return new SampleBatch<T>(batch);
+			}
+		}, maxSamples, checker, parameters);
+	}
+	
+	// the samples are drawn and checked in parallel; the result depends on the seed but not on the number of threads
+	public static <T> RateEstimate estimate(final Generator<? extends T> generator, final long seed, long maxSamples, Checker<T> checker, EstimationParameters parameters) {
+		return estimate(new BatchSource<T>() {
+			protected Batch<T> next(long numSamples, int maxSamples) {
+				return new GeneratedBatch<T>(generator, seed, numSamples/CHUNK_SIZE, maxSamples);
+			}
+		}, maxSamples, checker, parameters);
+	}
+}
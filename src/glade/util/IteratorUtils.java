@@ -17,9 +17,11 @@ package glade.util;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
 
+import glade.util.OracleUtils.DiscriminativeOracle;
 import glade.util.OracleUtils.Wrapper;
 import glade.util.RandomUtils.RandomExtra;
 import glade.util.Utils.Callback;
@@ -270,6 +272,80 @@ public class IteratorUtils {
 		}
 	}
 	
+	// sends getParallelism() samples at a time to the oracle, then applies the filter to the valid ones
+	public static class OracleFilteredIterator implements Iterator<String> {
+		private final Iterator<String> iterator;
+		private final DiscriminativeOracle oracle;
+		private final Filter<String> filter;
+		private final Callback callback;
+		private final LinkedList<String> accepted = new LinkedList<String>();
+		
+		public OracleFilteredIterator(Iterator<String> iterator, DiscriminativeOracle oracle, Filter<String> filter, Callback callback) {
+			this.iterator = iterator;
+			this.oracle = oracle;
+			this.filter = filter;
+			this.callback = callback;
+			increment();
+		}
+		
+		private void increment() {
+			while(this.accepted.isEmpty() && this.iterator.hasNext()) {
+				List<String> batch = new ArrayList<String>();
+				while(batch.size() < this.oracle.getParallelism() && this.iterator.hasNext()) {
+					this.callback.call();
+					batch.add(this.iterator.next());
+				}
+				List<Boolean> results = this.oracle.queryAll(batch);
+				for(int i=0; i<batch.size(); i++) {
+					if(results.get(i) && this.filter.filter(batch.get(i))) {
+						this.accepted.add(batch.get(i));
+					}
+				}
+			}
+		}
+		
+		@Override
+		public boolean hasNext() {
+			return !this.accepted.isEmpty();
+		}
+		
+		@Override
+		public String next() {
+			if(this.accepted.isEmpty()) {
+				return null;
+			}
+			String t = this.accepted.removeFirst();
+			if(this.accepted.isEmpty()) {
+				increment();
+			}
+			return t;
+		}
+		
+		@Override
+		public void remove() {
+			throw new RuntimeException();
+		}
+	}
+	
+	public static class OracleFilteredIterable implements Iterable<String> {
+		private final Iterable<String> iterable;
+		private final DiscriminativeOracle oracle;
+		private final Filter<String> filter;
+		private final Callback callback;
+		
+		public OracleFilteredIterable(Iterable<String> iterable, DiscriminativeOracle oracle, Filter<String> filter, Callback callback) {
+			this.iterable = iterable;
+			this.oracle = oracle;
+			this.filter = filter;
+			this.callback = callback;
+		}
+		
+		@Override
+		public Iterator<String> iterator() {
+			return new OracleFilteredIterator(this.iterable.iterator(), this.oracle, this.filter, this.callback);
+		}
+	}
+	
 	public static class MutationSampler implements Sampler {
 		private final String seed;
 		private final int numMutations;
@@ -0,0 +1,199 @@
+/*  Copyright 2015-2017 Stanford University                                                                                                                                       
+ *                                                                                                                                                                               
+ *  Licensed under the Apache License, Version 2.0 (the "License");                                                                                                               
+ *  you may not use this file except in compliance with the License.                                                                                                              
+ *  You may obtain a copy of the License at                                                                                                                                       
+                                                                                                                                                                                
+ *      http://www.apache.org/licenses/LICENSE-2.0                                                                                                                                
+                                                                                                                                                                                
+ *  Unless required by applicable law or agreed to in writing, software                                                                                                           
+ *  distributed under the License is distributed on an "AS IS" BASIS,                                                                                                             
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.                                                                                                      
+ *  See the License for the specific language governing permissions and                                                                                                           
+ *  limitations under the License. 
+ */
+
+package glade.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import glade.program.ProgramOracleUtils.Verdict;
+import glade.program.ProgramOracleUtils.VerdictOracle;
+
+public class JvmUtils {
+	// recursive descent parsers need more stack than the default on deeply nested inputs
+	private static final long STACK_SIZE = 1 << 26;
+	
+	// the target only shares the platform (JDK) classes with glade
+	public static ClassLoader getIsolatedClassLoader(File[] classpath) {
+		URL[] urls = new URL[classpath.length];
+		for(int i=0; i<classpath.length; i++) {
+			try {
+				urls[i] = classpath[i].toURI().toURL();
+			} catch(MalformedURLException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		return new URLClassLoader(urls, ClassLoader.getPlatformClassLoader());
+	}
+	
+	private static boolean isSupportedParameter(Class<?> type) {
+		return type == String.class || type == Reader.class || type == InputStream.class;
+	}
+	
+	// a public static method taking the input as a String, Reader or InputStream
+	public static Method getEntryPoint(ClassLoader loader, String className, String methodName) {
+		try {
+			for(Method method : Class.forName(className, true, loader).getMethods()) {
+				if(method.getName().equals(methodName) && Modifier.isStatic(method.getModifiers()) && method.getParameterTypes().length == 1 && isSupportedParameter(method.getParameterTypes()[0])) {
+					method.setAccessible(true);
+					return method;
+				}
+			}
+		} catch(ClassNotFoundException e) {
+			throw new RuntimeException(e);
+		}
+		throw new RuntimeException("Entry point not found: " + className + "." + methodName);
+	}
+	
+	private static Object getArgument(Class<?> type, String query) {
+		if(type == String.class) {
+			return query;
+		} else if(type == Reader.class) {
+			return new StringReader(query);
+		} else {
+			return new ByteArrayInputStream(query.getBytes(StandardCharsets.UTF_8));
+		}
+	}
+	
+	// calls the entry point on worker threads, abandoning any call that outlives the timeout; an abandoned call
+	// keeps its thread until it returns, so once MAX_STUCK_THREADS are stuck the oracle refuses further queries.
+	// targets share this JVM, so ones that call System.exit or write to System.out/System.err are unsupported and
+	// should run as shell programs instead
+	public static class JvmVerdictOracle implements VerdictOracle {
+		public static final int MAX_STUCK_THREADS = 8;
+		private static final int QUEUED = 0;
+		private static final int RUNNING = 1;
+		private static final int DONE = 2;
+		private static final int ABANDONED = 3;
+		
+		private final Method entryPoint;
+		private final long timeoutMillis;
+		private final ExecutorService executor;
+		private final AtomicInteger numStuck = new AtomicInteger(0);
+		
+		public JvmVerdictOracle(final ClassLoader loader, String className, String methodName, long timeoutMillis, int numThreads) {
+			this.entryPoint = getEntryPoint(loader, className, methodName);
+			this.timeoutMillis = timeoutMillis;
+			this.executor = Executors.newFixedThreadPool(Math.max(1, numThreads) + MAX_STUCK_THREADS, new ThreadFactory() {
+				private int counter = 0;
+				public synchronized Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(null, runnable, "glade-jvm-target-" + (this.counter++), STACK_SIZE);
+					thread.setDaemon(true);
+					thread.setContextClassLoader(loader);
+					return thread;
+				}
+			});
+		}
+		
+		// a boolean result is the target's own verdict; otherwise returning normally means the input was accepted
+		private Verdict invoke(String query) {
+			try {
+				Object result = this.entryPoint.invoke(null, getArgument(this.entryPoint.getParameterTypes()[0], query));
+				return result instanceof Boolean && !(Boolean)result ? Verdict.INVALID : Verdict.VALID;
+			} catch(InvocationTargetException e) {
+				return e.getCause() instanceof Exception ? Verdict.INVALID : Verdict.CRASH;
+			} catch(IllegalAccessException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		
+		@Override
+		public Verdict classify(final String query) {
+			if(this.numStuck.get() >= MAX_STUCK_THREADS) {
+				throw new RuntimeException("Too many target calls ignored their timeout: " + this.numStuck.get());
+			}
+			final AtomicInteger state = new AtomicInteger(QUEUED);
+			final AtomicLong startTime = new AtomicLong();
+			final CountDownLatch started = new CountDownLatch(1);
+			Future<Verdict> future = this.executor.submit(new Callable<Verdict>() {
+				public Verdict call() {
+					if(!state.compareAndSet(QUEUED, RUNNING)) {
+						return Verdict.TIMEOUT;
+					}
+					startTime.set(System.currentTimeMillis());
+					started.countDown();
+					try {
+						return invoke(query);
+					} finally {
+						if(!state.compareAndSet(RUNNING, DONE)) {
+							numStuck.decrementAndGet();
+						}
+					}
+				}
+			});
+			try {
+				if(this.timeoutMillis == -1) {
+					return future.get();
+				}
+				// the timeout runs from when the call starts, not from when it was queued behind a busy pool;
+				// a call that is done without starting was cancelled by close, and get throws
+				while(!started.await(this.timeoutMillis, TimeUnit.MILLISECONDS)) {
+					if(future.isDone()) {
+						break;
+					}
+				}
+				long remaining = startTime.get() + this.timeoutMillis - System.currentTimeMillis();
+				return future.get(Math.max(0, remaining), TimeUnit.MILLISECONDS);
+			} catch(TimeoutException e) {
+				this.abandon(future, state);
+				return Verdict.TIMEOUT;
+			} catch(ExecutionException e) {
+				return Verdict.CRASH;
+			} catch(InterruptedException e) {
+				this.abandon(future, state);
+				throw new RuntimeException(e);
+			}
+		}
+		
+		// a call that has not started is dropped; a running one is interrupted and counted as stuck until it returns
+		private void abandon(Future<Verdict> future, AtomicInteger state) {
+			if(state.compareAndSet(QUEUED, ABANDONED)) {
+				future.cancel(false);
+				return;
+			}
+			if(state.compareAndSet(RUNNING, ABANDONED)) {
+				this.numStuck.incrementAndGet();
+			}
+			future.cancel(true);
+		}
+		
+		public void close() {
+			for(Runnable runnable : this.executor.shutdownNow()) {
+				((Future<?>)runnable).cancel(false);
+			}
+		}
+	}
+}
@@ -20,20 +20,21 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
 
+// every method is synchronized, since learners log from several threads at once
 public class Log {
 	private static String logName = null;
 	
-	public static void init(String log) {
+	public static synchronized void init(String log) {
 		logName = log;
 		new File(logName).delete();
 	}
 	
-	public static void output(String s) {
+	public static synchronized void output(String s) {
 		System.out.println(s);
 		info(s);
 	}
 	
-	public static void info(String s) {
+	public static synchronized void info(String s) {
 		try {
 			PrintWriter pw = new PrintWriter(new FileOutputStream(logName, true));
 			pw.println(s);
@@ -15,15 +15,185 @@
 
 package glade.util;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
+import glade.program.ProgramOracleUtils.Verdict;
+import glade.program.ProgramOracleUtils.VerdictOracle;
 import glade.util.RandomUtils.RandomExtra;
 import glade.util.Utils.Filter;
+import glade.util.Utils.MultivalueMap;
 import glade.util.Utils.Pair;
 
 public class OracleUtils {
 	public interface DiscriminativeOracle {
 		public abstract boolean query(String query);
+		
+		// results are in the same order as the queries
+		public default List<Boolean> queryAll(List<String> queries) {
+			List<Boolean> results = new ArrayList<Boolean>();
+			for(String query : queries) {
+				results.add(this.query(query));
+			}
+			return results;
+		}
+		
+		// returns false as soon as some query is invalid
+		public default boolean queryAllValid(List<String> queries) {
+			for(String query : queries) {
+				if(!this.query(query)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		
+		// number of queries the oracle can safely answer at once
+		public default int getParallelism() {
+			return 1;
+		}
+	}
+	
+	// lets several users share an oracle's concurrency, e.g. one per learning thread
+	public static class LimitedParallelismDiscriminativeOracle implements DiscriminativeOracle {
+		private final DiscriminativeOracle oracle;
+		private final int parallelism;
+		
+		public LimitedParallelismDiscriminativeOracle(DiscriminativeOracle oracle, int parallelism) {
+			this.oracle = oracle;
+			this.parallelism = parallelism;
+		}
+		
+		@Override
+		public boolean query(String query) {
+			return this.oracle.query(query);
+		}
+		
+		@Override
+		public List<Boolean> queryAll(List<String> queries) {
+			return ParallelUtils.queryAll(this.oracle, queries, this.parallelism);
+		}
+		
+		@Override
+		public boolean queryAllValid(List<String> queries) {
+			return ParallelUtils.queryAllValid(this.oracle, queries, this.parallelism);
+		}
+		
+		@Override
+		public int getParallelism() {
+			return this.parallelism;
+		}
+	}
+	
+	// a limit on oracle queries and wall-clock time (non-positive means unlimited), shared by every oracle that uses it
+	public static class QueryBudget {
+		private final long maxQueries;
+		private final long maxMillis;
+		private final long startTime = System.currentTimeMillis();
+		private final AtomicLong numQueries = new AtomicLong();
+		
+		public QueryBudget(long maxQueries, long maxMillis) {
+			this.maxQueries = maxQueries;
+			this.maxMillis = maxMillis;
+		}
+		
+		public long getNumQueries() {
+			return this.numQueries.get();
+		}
+		
+		public long getElapsedMillis() {
+			return System.currentTimeMillis() - this.startTime;
+		}
+		
+		public boolean isExhausted() {
+			return (this.maxQueries > 0 && this.numQueries.get() >= this.maxQueries) || (this.maxMillis > 0 && this.getElapsedMillis() >= this.maxMillis);
+		}
+		
+		// reserves one query, or returns false if the budget has run out
+		private boolean tryQuery() {
+			if(this.maxMillis > 0 && this.getElapsedMillis() >= this.maxMillis) {
+				return false;
+			}
+			if(this.maxQueries <= 0) {
+				this.numQueries.incrementAndGet();
+				return true;
+			}
+			while(true) {
+				long cur = this.numQueries.get();
+				if(cur >= this.maxQueries) {
+					return false;
+				}
+				if(this.numQueries.compareAndSet(cur, cur+1)) {
+					return true;
+				}
+			}
+		}
+	}
+	
+	// once the budget runs out every query is rejected without running it, which only ever makes synthesis
+	// more conservative, so whatever has been learned by then is still a valid grammar
+	public static class BudgetedDiscriminativeOracle implements DiscriminativeOracle {
+		private final DiscriminativeOracle oracle;
+		private final QueryBudget budget;
+		
+		public BudgetedDiscriminativeOracle(DiscriminativeOracle oracle, QueryBudget budget) {
+			this.oracle = oracle;
+			this.budget = budget;
+		}
+		
+		public QueryBudget getBudget() {
+			return this.budget;
+		}
+		
+		@Override
+		public boolean query(String query) {
+			return this.budget.tryQuery() && this.oracle.query(query);
+		}
+		
+		@Override
+		public List<Boolean> queryAll(List<String> queries) {
+			return ParallelUtils.queryAll(this, queries, this.getParallelism());
+		}
+		
+		@Override
+		public boolean queryAllValid(List<String> queries) {
+			return ParallelUtils.queryAllValid(this, queries, this.getParallelism());
+		}
+		
+		@Override
+		public int getParallelism() {
+			return this.oracle.getParallelism();
+		}
+	}
+	
+	public interface AsyncDiscriminativeOracle {
+		public abstract CompletableFuture<Boolean> queryAsync(String query);
 	}
 	
 	public interface GenerativeOracle {
@@ -76,6 +246,461 @@ public class OracleUtils {
 		public boolean query(String query) {
 			return this.oracle.query(this.wrapper.wrap(query));
 		}
+		
+		private List<String> wrapAll(List<String> queries) {
+			List<String> wrappedQueries = new ArrayList<String>();
+			for(String query : queries) {
+				wrappedQueries.add(this.wrapper.wrap(query));
+			}
+			return wrappedQueries;
+		}
+		
+		@Override
+		public List<Boolean> queryAll(List<String> queries) {
+			return this.oracle.queryAll(this.wrapAll(queries));
+		}
+		
+		@Override
+		public boolean queryAllValid(List<String> queries) {
+			return this.oracle.queryAllValid(this.wrapAll(queries));
+		}
+		
+		@Override
+		public int getParallelism() {
+			return this.oracle.getParallelism();
+		}
+	}
+	
+	public static class ExecutorAsyncDiscriminativeOracle implements AsyncDiscriminativeOracle {
+		private final DiscriminativeOracle oracle;
+		private final Executor executor;
+		
+		public ExecutorAsyncDiscriminativeOracle(DiscriminativeOracle oracle, Executor executor) {
+			this.oracle = oracle;
+			this.executor = executor;
+		}
+		
+		// at most getParallelism() queries run at once
+		public ExecutorAsyncDiscriminativeOracle(DiscriminativeOracle oracle) {
+			this(oracle, new ParallelUtils.BoundedExecutor("glade-async-oracle", oracle.getParallelism()));
+		}
+		
+		@Override
+		public CompletableFuture<Boolean> queryAsync(final String query) {
+			return CompletableFuture.supplyAsync(new Supplier<Boolean>() {
+				public Boolean get() {
+					return oracle.query(query);
+				}
+			}, this.executor);
+		}
+	}
+	
+	public static class BlockingDiscriminativeOracle implements DiscriminativeOracle {
+		private final AsyncDiscriminativeOracle oracle;
+		private final int parallelism;
+		
+		public BlockingDiscriminativeOracle(AsyncDiscriminativeOracle oracle, int parallelism) {
+			this.oracle = oracle;
+			this.parallelism = parallelism;
+		}
+		
+		@Override
+		public boolean query(String query) {
+			return ParallelUtils.get(this.oracle.queryAsync(query));
+		}
+		
+		@Override
+		public List<Boolean> queryAll(List<String> queries) {
+			List<CompletableFuture<Boolean>> futures = new ArrayList<CompletableFuture<Boolean>>();
+			for(String query : queries) {
+				futures.add(this.oracle.queryAsync(query));
+			}
+			List<Boolean> results = new ArrayList<Boolean>();
+			try {
+				for(CompletableFuture<Boolean> future : futures) {
+					results.add(ParallelUtils.get(future));
+				}
+			} finally {
+				ParallelUtils.cancelAll(futures);
+			}
+			return results;
+		}
+		
+		// issues the queries in windows of getParallelism(), stopping after the first window with an invalid query
+		@Override
+		public boolean queryAllValid(List<String> queries) {
+			int windowSize = Math.max(1, this.parallelism);
+			for(int i=0; i<queries.size(); i+=windowSize) {
+				for(boolean result : this.queryAll(queries.subList(i, Math.min(i+windowSize, queries.size())))) {
+					if(!result) {
+						return false;
+					}
+				}
+			}
+			return true;
+		}
+		
+		@Override
+		public int getParallelism() {
+			return this.parallelism;
+		}
+	}
+	
+	private static class CacheEntry {
+		private final boolean result;
+		private final long offset; // position in the on-disk log, or -1
+		private CacheEntry(boolean result, long offset) {
+			this.result = result;
+			this.offset = offset;
+		}
+	}
+	
+	// memoizes query results in a byte-bounded LRU; evicted entries stay reachable through an append-only log
+	public static class CachingDiscriminativeOracle implements DiscriminativeOracle {
+		private static final long ENTRY_OVERHEAD = 96; // approximate bytes of map entry, string header, and cache entry
+		private static final long SPILLED_OVERHEAD = 48; // approximate bytes of a boxed offset in the spilled index
+		
+		private final DiscriminativeOracle oracle;
+		private final long maxBytes;
+		private final LinkedHashMap<String,CacheEntry> cache = new LinkedHashMap<String,CacheEntry>(16, 0.75f, true);
+		private final MultivalueMap<Integer,Long> spilled = new MultivalueMap<Integer,Long>();
+		private final RandomAccessFile log;
+		private final FileChannel channel;
+		private final DataOutputStream output;
+		private long logLength = 0;
+		private long curBytes = 0;
+		private long spilledBytes = 0;
+		private long numHits = 0;
+		private long numDiskHits = 0;
+		private long numMisses = 0;
+		
+		public CachingDiscriminativeOracle(DiscriminativeOracle oracle, long maxBytes, File logFile) {
+			this.oracle = oracle;
+			this.maxBytes = maxBytes;
+			if(logFile == null) {
+				this.log = null;
+				this.channel = null;
+				this.output = null;
+				return;
+			}
+			try {
+				File parent = logFile.getAbsoluteFile().getParentFile();
+				if(parent != null) {
+					parent.mkdirs();
+				}
+				this.log = new RandomAccessFile(logFile, "rw");
+				this.channel = this.log.getChannel();
+				this.load();
+				this.channel.position(this.logLength);
+				this.output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(this.channel)));
+			} catch(IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		
+		public CachingDiscriminativeOracle(DiscriminativeOracle oracle, long maxBytes) {
+			this(oracle, maxBytes, null);
+		}
+		
+		private static long getSize(String query) {
+			return ENTRY_OVERHEAD + 2*query.length();
+		}
+		
+		private static long getRecordSize(int queryLength) {
+			return 5 + 2L*queryLength;
+		}
+		
+		// replays the log of a previous run; a truncated final record is dropped
+		private void load() throws IOException {
+			long length = this.channel.size();
+			DataInputStream input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(this.channel)));
+			long offset = 0;
+			while(offset < length) {
+				String query;
+				boolean result;
+				try {
+					int queryLength = input.readInt();
+					if(queryLength < 0 || offset + getRecordSize(queryLength) > length) {
+						break;
+					}
+					char[] chars = new char[queryLength];
+					for(int i=0; i<queryLength; i++) {
+						chars[i] = input.readChar();
+					}
+					query = new String(chars);
+					result = input.readBoolean();
+				} catch(IOException e) {
+					break;
+				}
+				this.insert(query, new CacheEntry(result, offset));
+				offset += getRecordSize(query.length());
+			}
+			this.channel.truncate(offset);
+			this.logLength = offset;
+		}
+		
+		private long append(String query, boolean result) throws IOException {
+			long offset = this.logLength;
+			this.output.writeInt(query.length());
+			this.output.writeChars(query);
+			this.output.writeBoolean(result);
+			this.output.flush();
+			this.logLength += getRecordSize(query.length());
+			return offset;
+		}
+		
+		private CacheEntry readSpilled(String query) throws IOException {
+			for(long offset : this.spilled.get(query.hashCode())) {
+				ByteBuffer buffer = ByteBuffer.allocate((int)getRecordSize(query.length()));
+				while(buffer.hasRemaining() && this.channel.read(buffer, offset + buffer.position()) > 0);
+				buffer.flip();
+				if(buffer.remaining() < 4 || buffer.getInt() != query.length() || buffer.remaining() != 2*query.length() + 1) {
+					continue;
+				}
+				boolean isEqual = true;
+				for(int i=0; i<query.length(); i++) {
+					if(buffer.getChar() != query.charAt(i)) {
+						isEqual = false;
+						break;
+					}
+				}
+				if(isEqual) {
+					return new CacheEntry(buffer.get() != 0, offset);
+				}
+			}
+			return null;
+		}
+		
+		// the spilled index is charged against the budget too, but may take at most half of it; past that, evicted
+		// entries are only found again by replaying the log in a later run
+		private void insert(String query, CacheEntry entry) {
+			if(this.cache.put(query, entry) == null) {
+				this.curBytes += getSize(query);
+			}
+			Iterator<Map.Entry<String,CacheEntry>> iterator = this.cache.entrySet().iterator();
+			while(this.curBytes + this.spilledBytes > this.maxBytes && iterator.hasNext()) {
+				Map.Entry<String,CacheEntry> eldest = iterator.next();
+				if(eldest.getValue().offset != -1 && this.spilledBytes + SPILLED_OVERHEAD <= this.maxBytes/2) {
+					this.spilled.add(eldest.getKey().hashCode(), eldest.getValue().offset);
+					this.spilledBytes += SPILLED_OVERHEAD;
+				}
+				this.curBytes -= getSize(eldest.getKey());
+				iterator.remove();
+			}
+		}
+		
+		private synchronized Boolean lookup(String query) {
+			CacheEntry entry = this.cache.get(query);
+			if(entry == null && this.log != null && this.spilled.containsKey(query.hashCode())) {
+				try {
+					entry = this.readSpilled(query);
+				} catch(IOException e) {
+					throw new RuntimeException(e);
+				}
+				if(entry != null) {
+					Set<Long> offsets = this.spilled.get(query.hashCode());
+					offsets.remove(entry.offset);
+					if(offsets.isEmpty()) {
+						this.spilled.remove(query.hashCode());
+					}
+					this.spilledBytes -= SPILLED_OVERHEAD;
+					this.insert(query, entry);
+					this.numDiskHits++;
+				}
+			}
+			if(entry == null) {
+				this.numMisses++;
+				return null;
+			}
+			this.numHits++;
+			return entry.result;
+		}
+		
+		// timeouts are transient, so they are answered as invalid but never remembered
+		private synchronized void store(String query, Verdict verdict) {
+			if(verdict == Verdict.TIMEOUT || this.cache.containsKey(query)) {
+				return;
+			}
+			boolean result = verdict == Verdict.VALID;
+			long offset = -1;
+			if(this.log != null) {
+				try {
+					offset = this.append(query, result);
+				} catch(IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+			this.insert(query, new CacheEntry(result, offset));
+		}
+		
+		// oracles that cannot tell timeouts apart only answer valid or invalid
+		private Verdict classify(String query) {
+			if(this.oracle instanceof VerdictOracle) {
+				return ((VerdictOracle)this.oracle).classify(query);
+			}
+			return this.oracle.query(query) ? Verdict.VALID : Verdict.INVALID;
+		}
+		
+		private List<Verdict> classifyAll(List<String> queries) {
+			List<Verdict> verdicts = new ArrayList<Verdict>();
+			int numThreads = this.oracle.getParallelism();
+			if(!(this.oracle instanceof VerdictOracle)) {
+				for(boolean result : this.oracle.queryAll(queries)) {
+					verdicts.add(result ? Verdict.VALID : Verdict.INVALID);
+				}
+			} else if(numThreads <= 1) {
+				for(String query : queries) {
+					verdicts.add(this.classify(query));
+				}
+			} else {
+				List<Callable<Verdict>> tasks = new ArrayList<Callable<Verdict>>();
+				for(final String query : queries) {
+					tasks.add(new Callable<Verdict>() { public Verdict call() { return classify(query); }});
+				}
+				for(int i=0; i<tasks.size(); i+=numThreads) {
+					verdicts.addAll(ParallelUtils.invokeAll(tasks.subList(i, Math.min(i+numThreads, tasks.size()))));
+				}
+			}
+			return verdicts;
+		}
+		
+		@Override
+		public boolean query(String query) {
+			Boolean cached = this.lookup(query);
+			if(cached != null) {
+				return cached;
+			}
+			Verdict verdict = this.classify(query);
+			this.store(query, verdict);
+			return verdict == Verdict.VALID;
+		}
+		
+		@Override
+		public List<Boolean> queryAll(List<String> queries) {
+			Map<String,Boolean> results = new HashMap<String,Boolean>();
+			LinkedHashSet<String> misses = new LinkedHashSet<String>();
+			for(String query : queries) {
+				if(results.containsKey(query) || misses.contains(query)) {
+					continue;
+				}
+				Boolean cached = this.lookup(query);
+				if(cached != null) {
+					results.put(query, cached);
+				} else {
+					misses.add(query);
+				}
+			}
+			List<String> missList = new ArrayList<String>(misses);
+			List<Verdict> missVerdicts = this.classifyAll(missList);
+			for(int i=0; i<missList.size(); i++) {
+				this.store(missList.get(i), missVerdicts.get(i));
+				results.put(missList.get(i), missVerdicts.get(i) == Verdict.VALID);
+			}
+			List<Boolean> orderedResults = new ArrayList<Boolean>();
+			for(String query : queries) {
+				orderedResults.add(results.get(query));
+			}
+			return orderedResults;
+		}
+		
+		// misses go out in chunks of getParallelism(), so a sequential oracle still stops at the first failure
+		@Override
+		public boolean queryAllValid(List<String> queries) {
+			LinkedHashSet<String> misses = new LinkedHashSet<String>();
+			for(String query : queries) {
+				if(misses.contains(query)) {
+					continue;
+				}
+				Boolean cached = this.lookup(query);
+				if(cached == null) {
+					misses.add(query);
+				} else if(!cached) {
+					return false;
+				}
+			}
+			List<String> missList = new ArrayList<String>(misses);
+			int chunkSize = Math.max(1, this.oracle.getParallelism());
+			for(int i=0; i<missList.size(); i+=chunkSize) {
+				List<String> chunk = missList.subList(i, Math.min(i+chunkSize, missList.size()));
+				List<Verdict> chunkVerdicts = this.classifyAll(chunk);
+				boolean isValid = true;
+				for(int j=0; j<chunk.size(); j++) {
+					this.store(chunk.get(j), chunkVerdicts.get(j));
+					isValid &= chunkVerdicts.get(j) == Verdict.VALID;
+				}
+				if(!isValid) {
+					return false;
+				}
+			}
+			return true;
+		}
+		
+		@Override
+		public int getParallelism() {
+			return this.oracle.getParallelism();
+		}
+		
+		public synchronized long getNumHits() {
+			return this.numHits;
+		}
+		
+		public synchronized long getNumDiskHits() {
+			return this.numDiskHits;
+		}
+		
+		public synchronized long getNumMisses() {
+			return this.numMisses;
+		}
+		
+		public synchronized long getCacheBytes() {
+			return this.curBytes + this.spilledBytes;
+		}
+		
+		public synchronized String getStatistics() {
+			return "CACHE HITS: " + this.numHits + " (DISK: " + this.numDiskHits + "), MISSES: " + this.numMisses + ", ENTRIES: " + this.cache.size() + ", SPILLED: " + this.spilled.size();
+		}
+		
+		public synchronized void close() {
+			if(this.log != null) {
+				try {
+					this.output.flush();
+					this.log.close();
+				} catch(IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		}
+	}
+	
+	// logs are keyed by program name and the hash of the target binary, so a rebuilt target starts a fresh cache
+	public static File getCacheLogFile(File dir, String name, File binary) {
+		return new File(dir, name + "-" + getFileHash(binary) + ".cache");
+	}
+	
+	public static String getFileHash(File file) {
+		if(!file.isFile()) {
+			return "missing";
+		}
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			InputStream input = new FileInputStream(file);
+			byte[] buffer = new byte[1 << 16];
+			int len;
+			while((len = input.read(buffer)) != -1) {
+				digest.update(buffer, 0, len);
+			}
+			input.close();
+			StringBuilder sb = new StringBuilder();
+			byte[] hash = digest.digest();
+			for(int i=0; i<8; i++) {
+				sb.append(String.format("%02x", hash[i]));
+			}
+			return sb.toString();
+		} catch(IOException e) {
+			throw new RuntimeException(e);
+		} catch(NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
 	}
 	
 	public static class InteractiveOracleFromDiscriminative<T extends DiscriminativeOracle> implements InteractiveOracle<T> {
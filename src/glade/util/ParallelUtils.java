@@ -0,0 +1,201 @@
+/*  Copyright 2015-2017 Stanford University                                                                                                                                       
+ *                                                                                                                                                                               
+ *  Licensed under the Apache License, Version 2.0 (the "License");                                                                                                               
+ *  you may not use this file except in compliance with the License.                                                                                                              
+ *  You may obtain a copy of the License at                                                                                                                                       
+                                                                                                                                                                                
+ *      http://www.apache.org/licenses/LICENSE-2.0                                                                                                                                
+                                                                                                                                                                                
+ *  Unless required by applicable law or agreed to in writing, software                                                                                                           
+ *  distributed under the License is distributed on an "AS IS" BASIS,                                                                                                             
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.                                                                                                      
+ *  See the License for the specific language governing permissions and                                                                                                           
+ *  limitations under the License. 
+ */
+
+package glade.util;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+import glade.util.OracleUtils.DiscriminativeOracle;
+
+public class ParallelUtils {
+	public static final int NUM_PROCESSORS = Runtime.getRuntime().availableProcessors();
+	
+	public static class DaemonThreadFactory implements ThreadFactory {
+		private final String name;
+		private int counter = 0;
+		public DaemonThreadFactory(String name) {
+			this.name = name;
+		}
+		@Override
+		public synchronized Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, this.name + "-" + (this.counter++));
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+	
+	// tasks mostly block on target processes, so threads are cheap to keep around
+	private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new DaemonThreadFactory("glade-worker"));
+	
+	public static ExecutorService getExecutor() {
+		return EXECUTOR;
+	}
+	
+	// Executors.newVirtualThreadPerTaskExecutor, looked up reflectively since it only exists on newer runtimes
+	private static final Method NEW_VIRTUAL_EXECUTOR = getVirtualExecutorFactory();
+	
+	private static Method getVirtualExecutorFactory() {
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch(NoSuchMethodException e) {
+			return null;
+		}
+	}
+	
+	public static boolean hasVirtualThreads() {
+		return NEW_VIRTUAL_EXECUTOR != null;
+	}
+	
+	// runs at most maxConcurrency tasks at once; extra tasks wait on the permits, which is cheap on virtual threads
+	public static class BoundedExecutor implements Executor {
+		private final ExecutorService executor;
+		private final Semaphore permits;
+		
+		public BoundedExecutor(String name, int maxConcurrency) {
+			this.executor = newExecutor(name, maxConcurrency);
+			this.permits = new Semaphore(Math.max(1, maxConcurrency));
+		}
+		
+		private static ExecutorService newExecutor(String name, int maxConcurrency) {
+			if(NEW_VIRTUAL_EXECUTOR != null) {
+				try {
+					return (ExecutorService)NEW_VIRTUAL_EXECUTOR.invoke(null);
+				} catch(Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+			return Executors.newFixedThreadPool(Math.max(1, maxConcurrency), new DaemonThreadFactory(name));
+		}
+		
+		@Override
+		public void execute(final Runnable runnable) {
+			this.executor.execute(new Runnable() {
+				public void run() {
+					permits.acquireUninterruptibly();
+					try {
+						runnable.run();
+					} finally {
+						permits.release();
+					}
+				}
+			});
+		}
+		
+		public void shutdown() {
+			this.executor.shutdown();
+		}
+	}
+	
+	public static <T> T get(Future<T> future) {
+		try {
+			return future.get();
+		} catch(InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch(ExecutionException e) {
+			if(e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException)e.getCause();
+			} else if(e.getCause() instanceof Error) {
+				throw (Error)e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+	
+	public static <T> List<Future<T>> submitAll(List<? extends Callable<T>> tasks) {
+		List<Future<T>> futures = new ArrayList<Future<T>>();
+		for(Callable<T> task : tasks) {
+			futures.add(EXECUTOR.submit(task));
+		}
+		return futures;
+	}
+	
+	public static void cancelAll(List<? extends Future<?>> futures) {
+		for(Future<?> future : futures) {
+			future.cancel(true);
+		}
+	}
+	
+	public static <T> List<T> invokeAll(List<? extends Callable<T>> tasks) {
+		List<Future<T>> futures = submitAll(tasks);
+		List<T> results = new ArrayList<T>();
+		try {
+			for(Future<T> future : futures) {
+				results.add(get(future));
+			}
+		} finally {
+			cancelAll(futures);
+		}
+		return results;
+	}
+	
+	private static List<Callable<Boolean>> getQueryTasks(final DiscriminativeOracle oracle, List<String> queries) {
+		List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+		for(final String query : queries) {
+			tasks.add(new Callable<Boolean>() { public Boolean call() { return oracle.query(query); }});
+		}
+		return tasks;
+	}
+	
+	// at most numThreads queries are in flight at once
+	public static List<Boolean> queryAll(DiscriminativeOracle oracle, List<String> queries, int numThreads) {
+		if(numThreads <= 1 || queries.size() <= 1) {
+			List<Boolean> results = new ArrayList<Boolean>();
+			for(String query : queries) {
+				results.add(oracle.query(query));
+			}
+			return results;
+		}
+		List<Boolean> results = new ArrayList<Boolean>();
+		for(int i=0; i<queries.size(); i+=numThreads) {
+			results.addAll(invokeAll(getQueryTasks(oracle, queries.subList(i, Math.min(i+numThreads, queries.size())))));
+		}
+		return results;
+	}
+	
+	// stops dispatching (and cancels in-flight queries) at the first invalid query
+	public static boolean queryAllValid(DiscriminativeOracle oracle, List<String> queries, int numThreads) {
+		if(numThreads <= 1 || queries.size() <= 1) {
+			for(String query : queries) {
+				if(!oracle.query(query)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		for(int i=0; i<queries.size(); i+=numThreads) {
+			List<Future<Boolean>> futures = submitAll(getQueryTasks(oracle, queries.subList(i, Math.min(i+numThreads, queries.size()))));
+			try {
+				for(Future<Boolean> future : futures) {
+					if(!get(future)) {
+						return false;
+					}
+				}
+			} finally {
+				cancelAll(futures);
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,424 @@
+/*  Copyright 2015-2017 Stanford University                                                                                                                                       
+ *                                                                                                                                                                               
+ *  Licensed under the Apache License, Version 2.0 (the "License");                                                                                                               
+ *  you may not use this file except in compliance with the License.                                                                                                              
+ *  You may obtain a copy of the License at                                                                                                                                       
+                                                                                                                                                                                
+ *      http://www.apache.org/licenses/LICENSE-2.0                                                                                                                                
+                                                                                                                                                                                
+ *  Unless required by applicable law or agreed to in writing, software                                                                                                           
+ *  distributed under the License is distributed on an "AS IS" BASIS,                                                                                                             
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.                                                                                                      
+ *  See the License for the specific language governing permissions and                                                                                                           
+ *  limitations under the License. 
+ */
+
+package glade.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import glade.program.ProgramOracleUtils.Verdict;
+import glade.util.ParallelUtils.DaemonThreadFactory;
+
+public class ProcessUtils {
+	// compared by identity, so that a target printing the same text is not mistaken for a timeout
+	public static final String TIMEOUT = new String("Timeout!");
+	
+	public static boolean isTimeout(String output) {
+		return output == TIMEOUT;
+	}
+	
+	// shells report a process killed by signal n as exiting with 128+n
+	private static final int SIGNAL_EXIT_OFFSET = 128;
+	
+	// SIGILL, SIGABRT, SIGBUS, SIGFPE and SIGSEGV (linux numbering)
+	private static final int[] CRASH_SIGNALS = {4, 6, 7, 8, 11};
+	
+	// other high exit statuses (e.g., exit(200) or SIGKILL) are left to the verdict mode
+	private static boolean isCrash(int exitValue) {
+		for(int signal : CRASH_SIGNALS) {
+			if(exitValue == SIGNAL_EXIT_OFFSET + signal) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	// OUTPUT: valid iff the watched stream is all whitespace; EXIT_STATUS: valid iff the exit code is zero
+	public static enum VerdictMode {
+		OUTPUT, EXIT_STATUS;
+	}
+	
+	private static final int CHUNK_SIZE = 1 << 13;
+	private static final int MAX_RETAINED_SIZE = 1 << 20;
+	
+	// drains process pipes; threads (and their buffers) are reused across queries
+	private static final ExecutorService REAPER = Executors.newCachedThreadPool(new DaemonThreadFactory("glade-process-io"));
+	
+	// fires the timeout of every running process
+	private static final ScheduledExecutorService DEADLINES = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("glade-process-deadline"));
+	
+	public static class AdaptiveTimeoutParameters {
+		public final double percentile;
+		public final double multiplier;
+		public final long minMillis;
+		public final long maxMillis;
+		public final int windowSize;
+		public final int minSamples;
+		public AdaptiveTimeoutParameters(double percentile, double multiplier, long minMillis, long maxMillis, int windowSize, int minSamples) {
+			this.percentile = percentile;
+			this.multiplier = multiplier;
+			this.minMillis = minMillis;
+			this.maxMillis = maxMillis;
+			this.windowSize = windowSize;
+			this.minSamples = minSamples;
+		}
+	}
+	
+	// either a fixed deadline, or a multiple of a latency percentile over the most recent runs
+	public static class QueryTimeout {
+		private final AdaptiveTimeoutParameters parameters;
+		private final long[] latencies;
+		private int numLatencies = 0;
+		private int nextLatency = 0;
+		private long timeoutMillis;
+		private long numRuns = 0;
+		private long numTimeouts = 0;
+		
+		public QueryTimeout(long timeoutMillis) {
+			this.parameters = null;
+			this.latencies = null;
+			this.timeoutMillis = timeoutMillis;
+		}
+		
+		// the deadline stays at maxMillis until minSamples runs have been measured
+		public QueryTimeout(AdaptiveTimeoutParameters parameters) {
+			this.parameters = parameters;
+			this.latencies = new long[parameters.windowSize];
+			this.timeoutMillis = parameters.maxMillis;
+		}
+		
+		public boolean isAdaptive() {
+			return this.parameters != null;
+		}
+		
+		public synchronized long getTimeoutMillis() {
+			return this.timeoutMillis;
+		}
+		
+		// a run that timed out only shows its latency is at least the deadline, so frequent timeouts push the deadline up
+		public synchronized void record(long elapsedMillis, boolean isTimeout) {
+			this.numRuns++;
+			if(isTimeout) {
+				this.numTimeouts++;
+			}
+			if(this.parameters == null) {
+				return;
+			}
+			this.latencies[this.nextLatency] = isTimeout ? Math.max(elapsedMillis, this.timeoutMillis) : elapsedMillis;
+			this.nextLatency = (this.nextLatency + 1) % this.latencies.length;
+			this.numLatencies = Math.min(this.numLatencies + 1, this.latencies.length);
+			if(this.numLatencies < this.parameters.minSamples) {
+				return;
+			}
+			long[] sorted = Arrays.copyOf(this.latencies, this.numLatencies);
+			Arrays.sort(sorted);
+			long latency = sorted[Math.min(this.numLatencies - 1, (int)(this.parameters.percentile*this.numLatencies))];
+			this.timeoutMillis = Math.max(this.parameters.minMillis, Math.min(this.parameters.maxMillis, (long)Math.ceil(this.parameters.multiplier*latency)));
+		}
+		
+		public synchronized long getNumRuns() {
+			return this.numRuns;
+		}
+		
+		public synchronized long getNumTimeouts() {
+			return this.numTimeouts;
+		}
+	}
+	
+	private static final ThreadLocal<ByteBuffer> BUFFERS = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocate(CHUNK_SIZE);
+		}
+	};
+	
+	private static ByteBuffer grow(ByteBuffer buffer) {
+		ByteBuffer result = ByteBuffer.allocate(2*buffer.capacity());
+		buffer.flip();
+		result.put(buffer);
+		return result;
+	}
+	
+	// reads the stream to the end; the output is only kept (and decoded) if requested
+	private static String drain(InputStream input, boolean keep) throws IOException {
+		ByteBuffer buffer = BUFFERS.get();
+		buffer.clear();
+		ReadableByteChannel channel = Channels.newChannel(input);
+		try {
+			while(true) {
+				if(!buffer.hasRemaining()) {
+					if(keep) {
+						buffer = grow(buffer);
+					} else {
+						buffer.clear();
+					}
+				}
+				if(channel.read(buffer) == -1) {
+					break;
+				}
+			}
+		} finally {
+			channel.close();
+		}
+		String result = keep ? new String(buffer.array(), 0, buffer.position(), Charset.defaultCharset()) : null;
+		BUFFERS.set(buffer.capacity() > MAX_RETAINED_SIZE ? ByteBuffer.allocate(CHUNK_SIZE) : buffer);
+		return result;
+	}
+	
+	private static Future<String> submitDrain(final InputStream input, final boolean keep) {
+		return REAPER.submit(new Callable<String>() {
+			public String call() throws IOException {
+				return drain(input, keep);
+			}
+		});
+	}
+	
+	// same characters as the regex class \s
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t' || b == '\n' || b == 0x0B || b == '\f' || b == '\r';
+	}
+	
+	// returns true as soon as the stream produces a non-whitespace byte, without reading the rest
+	private static boolean scan(InputStream input) throws IOException {
+		ByteBuffer buffer = BUFFERS.get();
+		ReadableByteChannel channel = Channels.newChannel(input);
+		try {
+			while(true) {
+				buffer.clear();
+				if(channel.read(buffer) == -1) {
+					return false;
+				}
+				for(int i=0; i<buffer.position(); i++) {
+					if(!isWhitespace(buffer.get(i))) {
+						return true;
+					}
+				}
+			}
+		} finally {
+			channel.close();
+		}
+	}
+	
+	private static Future<Boolean> submitScan(final InputStream input) {
+		return REAPER.submit(new Callable<Boolean>() {
+			public Boolean call() throws IOException {
+				return scan(input);
+			}
+		});
+	}
+	
+	// same line structure as reading the output with BufferedReader.readLine()
+	private static String toLines(String output) {
+		if(output.indexOf('\r') == -1 && (output.isEmpty() || output.charAt(output.length()-1) == '\n')) {
+			return output;
+		}
+		StringBuilder result = new StringBuilder();
+		int start = 0;
+		for(int i=0; i<output.length(); i++) {
+			char c = output.charAt(i);
+			if(c == '\n' || c == '\r') {
+				result.append(output, start, i).append('\n');
+				if(c == '\r' && i+1 < output.length() && output.charAt(i+1) == '\n') {
+					i++;
+				}
+				start = i+1;
+			}
+		}
+		if(start < output.length()) {
+			result.append(output, start, output.length()).append('\n');
+		}
+		return result.toString();
+	}
+	
+	// kills the process together with everything it spawned
+	public static void destroyTree(Process process) {
+		Iterator<ProcessHandle> descendants = process.toHandle().descendants().iterator();
+		while(descendants.hasNext()) {
+			descendants.next().destroyForcibly();
+		}
+		process.destroyForcibly();
+	}
+	
+	// both pipes are drained concurrently, so a target that writes a lot to the ignored stream cannot block
+	public static String executeForStream(final Process process, boolean isError, long timeoutMillis) {
+		try {
+			process.getOutputStream().close();
+		} catch(IOException e) {}
+		final Future<String> output = submitDrain(isError ? process.getErrorStream() : process.getInputStream(), true);
+		final Future<String> ignored = submitDrain(isError ? process.getInputStream() : process.getErrorStream(), false);
+		final AtomicBoolean isTimeout = new AtomicBoolean(false);
+		ScheduledFuture<?> deadline = null;
+		if(timeoutMillis != -1) {
+			deadline = DEADLINES.schedule(new Runnable() {
+				public void run() {
+					if(process.isAlive() || !output.isDone() || !ignored.isDone()) {
+						isTimeout.set(true);
+						destroyTree(process);
+						// interrupting the drains closes their channels, in case an escaped child still holds a pipe
+						output.cancel(true);
+						ignored.cancel(true);
+					}
+				}
+			}, timeoutMillis, TimeUnit.MILLISECONDS);
+		}
+		// on any abnormal exit (deadline, drain failure, or the caller being interrupted) the target is killed
+		boolean isDone = false;
+		try {
+			String result = output.get();
+			ignored.get();
+			process.waitFor();
+			isDone = true;
+			return isTimeout.get() ? TIMEOUT : toLines(result);
+		} catch(CancellationException e) {
+			rethrowUnlessTimeout(isTimeout, e);
+			return TIMEOUT;
+		} catch(ExecutionException e) {
+			rethrowUnlessTimeout(isTimeout, e);
+			return TIMEOUT;
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} finally {
+			if(deadline != null) {
+				deadline.cancel(false);
+			}
+			if(!isDone) {
+				destroyTree(process);
+				output.cancel(true);
+				ignored.cancel(true);
+			}
+		}
+	}
+	
+	// a drain fails once the deadline closes its stream, which is a timeout rather than an error
+	private static void rethrowUnlessTimeout(AtomicBoolean isTimeout, Exception e) {
+		if(!isTimeout.get()) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	public static Process start(String command, boolean discardOutput) {
+		ProcessBuilder builder = new ProcessBuilder("/bin/sh", "-c", command);
+		if(discardOutput) {
+			builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+			builder.redirectError(ProcessBuilder.Redirect.DISCARD);
+		}
+		try {
+			return builder.start();
+		} catch(IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	// in OUTPUT mode the process is killed as soon as the watched stream shows it rejected the input
+	public static Verdict executeForVerdict(final Process process, boolean isError, VerdictMode mode, long timeoutMillis) {
+		try {
+			process.getOutputStream().close();
+		} catch(IOException e) {}
+		final Future<Boolean> output = mode == VerdictMode.OUTPUT ? submitScan(isError ? process.getErrorStream() : process.getInputStream()) : null;
+		final Future<String> ignored = mode == VerdictMode.OUTPUT ? submitDrain(isError ? process.getInputStream() : process.getErrorStream(), false) : null;
+		final AtomicBoolean isTimeout = new AtomicBoolean(false);
+		ScheduledFuture<?> deadline = null;
+		if(timeoutMillis != -1) {
+			deadline = DEADLINES.schedule(new Runnable() {
+				public void run() {
+					if(process.isAlive() || (output != null && (!output.isDone() || !ignored.isDone()))) {
+						isTimeout.set(true);
+						destroyTree(process);
+						if(output != null) {
+							output.cancel(true);
+							ignored.cancel(true);
+						}
+					}
+				}
+			}, timeoutMillis, TimeUnit.MILLISECONDS);
+		}
+		boolean isDone = false;
+		try {
+			if(output != null) {
+				if(output.get()) {
+					destroyTree(process);
+					ignored.cancel(true);
+					isDone = true;
+					return Verdict.INVALID;
+				}
+				ignored.get();
+			}
+			process.waitFor();
+			isDone = true;
+		} catch(CancellationException e) {
+			rethrowUnlessTimeout(isTimeout, e);
+			return Verdict.TIMEOUT;
+		} catch(ExecutionException e) {
+			rethrowUnlessTimeout(isTimeout, e);
+			return Verdict.TIMEOUT;
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} finally {
+			if(deadline != null) {
+				deadline.cancel(false);
+			}
+			if(!isDone) {
+				destroyTree(process);
+				if(output != null) {
+					output.cancel(true);
+					ignored.cancel(true);
+				}
+			}
+		}
+		if(isTimeout.get()) {
+			return Verdict.TIMEOUT;
+		}
+		int exitValue = process.exitValue();
+		if(isCrash(exitValue)) {
+			return Verdict.CRASH;
+		}
+		return mode == VerdictMode.EXIT_STATUS && exitValue != 0 ? Verdict.INVALID : Verdict.VALID;
+	}
+	
+	public static String executeForStream(Process process, boolean isError, QueryTimeout timeout) {
+		long time = System.currentTimeMillis();
+		String result = executeForStream(process, isError, timeout.getTimeoutMillis());
+		timeout.record(System.currentTimeMillis() - time, isTimeout(result));
+		return result;
+	}
+	
+	public static Verdict executeForVerdict(Process process, boolean isError, VerdictMode mode, QueryTimeout timeout) {
+		long time = System.currentTimeMillis();
+		Verdict result = executeForVerdict(process, isError, mode, timeout.getTimeoutMillis());
+		// an early rejection says little about how long the run would have taken
+		if(result != Verdict.INVALID || mode != VerdictMode.OUTPUT) {
+			timeout.record(System.currentTimeMillis() - time, result == Verdict.TIMEOUT);
+		}
+		return result;
+	}
+}
@@ -22,19 +22,24 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 import glade.program.ProgramOracleUtils.CoverInfo;
 import glade.program.ProgramOracleUtils.CoverageOracle;
 import glade.program.ProgramOracleUtils.Oracle;
+import glade.program.ProgramOracleUtils.Verdict;
+import glade.program.ProgramOracleUtils.VerdictOracle;
+import glade.util.ProcessUtils.QueryTimeout;
+import glade.util.ProcessUtils.VerdictMode;
 import glade.util.OracleUtils.DiscriminativeOracle;
 import glade.util.Utils.ConstantFilter;
 import glade.util.Utils.Filter;
@@ -153,41 +158,12 @@ public class ShellUtils {
 		}
 	}
 	
-	public static String executeForStream(final String command, final boolean isError, long timeoutMillis) {
-		final Process process = executeNoWait(command);
-		Callable<String> exec = new Callable<String>() {
-			public String call() {
-				String result = read(isError ? process.getErrorStream() : process.getInputStream());
-				try {
-					process.waitFor();
-				} catch (InterruptedException e) {
-					throw new RuntimeException(e);
-				}
-				return result;
-			}
-		};
-		if(timeoutMillis == -1) {
-			try {
-				return exec.call();
-			} catch (Exception e) {
-				throw new Error(e);
-			}
-		} else {
-			final ExecutorService executor = Executors.newSingleThreadExecutor();
-			final Future<String> future = executor.submit(exec);
-			executor.shutdown();
-			String result;
-			try {
-				result = future.get(timeoutMillis, TimeUnit.MILLISECONDS);
-			} catch(Exception e) {
-				process.destroy();
-				result = "Timeout!";
-			}
-			if(!executor.isTerminated()) {
-			    executor.shutdownNow();
-			}
-			return result;
-		}
+	public static String executeForStream(String command, boolean isError, long timeoutMillis) {
+		return ProcessUtils.executeForStream(executeNoWait(command), isError, timeoutMillis);
+	}
+	
+	public static String executeForStream(String command, boolean isError, QueryTimeout timeout) {
+		return ProcessUtils.executeForStream(executeNoWait(command), isError, timeout);
 	}
 	
 	public static interface CommandFactory {
@@ -205,34 +181,382 @@ public class ShellUtils {
 		private final String command;
 		private final String filename;
 		private final boolean isError;
-		private final long timeoutMillis;
+		private final QueryTimeout timeout;
 		
-		public ShellOracle(String filename, String command, boolean isError, long timeoutMillis) {
+		public ShellOracle(String filename, String command, boolean isError, QueryTimeout timeout) {
 			this.filename = filename;
 			this.command = command;
 			this.isError = isError;
-			this.timeoutMillis = timeoutMillis;
+			this.timeout = timeout;
+		}
+		
+		public ShellOracle(String filename, String command, boolean isError, long timeoutMillis) {
+			this(filename, command, isError, new QueryTimeout(timeoutMillis));
 		}
 		
 		@Override
 		public String execute(String query) {
 			write(query, this.filename);
-			String result = ShellUtils.executeForStream(this.command, this.isError, this.timeoutMillis);
+			String result = ShellUtils.executeForStream(this.command, this.isError, this.timeout);
 			delete(this.filename);
 			return result;
 		}
 	}
 	
-	public static class ShellDiscriminativeOracle implements DiscriminativeOracle {
+	private static final String SHARED_MEMORY_PATH = "/dev/shm";
+	
+	// prefer tmpfs so that per-query scratch files never touch the disk
+	public static File getScratchDirectory() {
+		File shm = new File(SHARED_MEMORY_PATH);
+		if(shm.isDirectory() && shm.canWrite()) {
+			return shm;
+		}
+		return new File(System.getProperty("java.io.tmpdir"));
+	}
+	
+	public static class ScratchShellOracle implements Oracle {
+		private final File scratchDir;
+		private final String prefix;
+		private final CommandFactory factory;
+		private final String exePath;
+		private final boolean isError;
+		private final QueryTimeout timeout;
+		
+		public ScratchShellOracle(File scratchDir, String prefix, CommandFactory factory, String exePath, boolean isError, QueryTimeout timeout) {
+			this.scratchDir = scratchDir;
+			this.prefix = prefix;
+			this.factory = factory;
+			this.exePath = exePath;
+			this.isError = isError;
+			this.timeout = timeout;
+		}
+		
+		public ScratchShellOracle(String prefix, CommandFactory factory, String exePath, boolean isError, QueryTimeout timeout) {
+			this(getScratchDirectory(), prefix, factory, exePath, isError, timeout);
+		}
+		
+		public ScratchShellOracle(String prefix, CommandFactory factory, String exePath, boolean isError, long timeoutMillis) {
+			this(prefix, factory, exePath, isError, new QueryTimeout(timeoutMillis));
+		}
+		
+		@Override
+		public String execute(String query) {
+			File file;
+			try {
+				file = File.createTempFile(this.prefix, "", this.scratchDir);
+			} catch(IOException e) {
+				throw new Error(e);
+			}
+			try {
+				write(query, file);
+				return ShellUtils.executeForStream(this.factory.getCommand(file.getPath(), this.exePath), this.isError, this.timeout);
+			} finally {
+				file.delete();
+			}
+		}
+	}
+	
+	// like ScratchShellOracle, but only reports how the run ended instead of capturing its output
+	public static class ScratchShellVerdictOracle implements VerdictOracle {
+		private final File scratchDir;
+		private final String prefix;
+		private final CommandFactory factory;
+		private final String exePath;
+		private final boolean isError;
+		private final VerdictMode mode;
+		private final QueryTimeout timeout;
+		
+		public ScratchShellVerdictOracle(File scratchDir, String prefix, CommandFactory factory, String exePath, boolean isError, VerdictMode mode, QueryTimeout timeout) {
+			this.scratchDir = scratchDir;
+			this.prefix = prefix;
+			this.factory = factory;
+			this.exePath = exePath;
+			this.isError = isError;
+			this.mode = mode;
+			this.timeout = timeout;
+		}
+		
+		public ScratchShellVerdictOracle(String prefix, CommandFactory factory, String exePath, boolean isError, VerdictMode mode, QueryTimeout timeout) {
+			this(getScratchDirectory(), prefix, factory, exePath, isError, mode, timeout);
+		}
+		
+		public ScratchShellVerdictOracle(String prefix, CommandFactory factory, String exePath, boolean isError, VerdictMode mode, long timeoutMillis) {
+			this(prefix, factory, exePath, isError, mode, new QueryTimeout(timeoutMillis));
+		}
+		
+		@Override
+		public Verdict classify(String query) {
+			File file;
+			try {
+				file = File.createTempFile(this.prefix, "", this.scratchDir);
+			} catch(IOException e) {
+				throw new Error(e);
+			}
+			try {
+				write(query, file);
+				Process process = ProcessUtils.start(this.factory.getCommand(file.getPath(), this.exePath), this.mode == VerdictMode.EXIT_STATUS);
+				return ProcessUtils.executeForVerdict(process, this.isError, this.mode, this.timeout);
+			} finally {
+				file.delete();
+			}
+		}
+	}
+	
+	// persistent /bin/sh loop that runs the target once per query line, so the JVM only forks once per worker
+	private static class ShellWorker {
+		private static final String EOF = new String("EOF");
+		private final String filename;
+		private final String command;
+		private final String sentinel;
+		private final QueryTimeout timeout;
+		private Process process = null;
+		private Writer input = null;
+		private BlockingQueue<String> lines = null;
+		
+		private ShellWorker(String filename, String command, boolean isError, QueryTimeout timeout, String sentinel) {
+			this.filename = filename;
+			this.command = "{ " + command + " ; } </dev/null " + (isError ? "2>&1 >/dev/null" : "2>/dev/null") + "; echo " + sentinel;
+			this.sentinel = sentinel;
+			this.timeout = timeout;
+		}
+		
+		private void start() {
+			try {
+				ProcessBuilder builder = new ProcessBuilder("/bin/sh");
+				builder.redirectError(ProcessBuilder.Redirect.to(new File("/dev/null")));
+				this.process = builder.start();
+			} catch(IOException e) {
+				throw new RuntimeException(e);
+			}
+			this.input = new OutputStreamWriter(this.process.getOutputStream());
+			final BlockingQueue<String> curLines = new LinkedBlockingQueue<String>();
+			final InputStream output = this.process.getInputStream();
+			Thread reader = new Thread() {
+				public void run() {
+					try {
+						BufferedReader br = new BufferedReader(new InputStreamReader(output));
+						String line;
+						while((line = br.readLine()) != null) {
+							curLines.add(line);
+						}
+						br.close();
+					} catch(IOException e) {}
+					curLines.add(EOF);
+				}
+			};
+			reader.setDaemon(true);
+			reader.start();
+			this.lines = curLines;
+		}
+		
+		private void stop() {
+			if(this.process != null) {
+				ProcessUtils.destroyTree(this.process);
+			}
+			this.process = null;
+			this.input = null;
+			this.lines = null;
+		}
+		
+		private String execute(String query) {
+			try {
+				return this.executeHelper(query);
+			} finally {
+				delete(this.filename);
+			}
+		}
+		
+		private String executeHelper(String query) {
+			write(query, this.filename);
+			try {
+				if(this.process == null) {
+					this.start();
+				}
+				this.input.write(this.command + "\n");
+				this.input.flush();
+			} catch(IOException e) {
+				this.stop();
+				throw new RuntimeException(e);
+			}
+			StringBuilder result = new StringBuilder();
+			boolean isTimeout = false;
+			long time = System.currentTimeMillis();
+			long timeoutMillis = this.timeout.getTimeoutMillis();
+			try {
+				while(true) {
+					String line = timeoutMillis == -1 ? this.lines.take() : this.lines.poll(time + timeoutMillis - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+					if(line == null) {
+						this.stop();
+						isTimeout = true;
+						break;
+					}
+					if(line == EOF) {
+						this.stop();
+						break;
+					}
+					if(line.endsWith(this.sentinel)) {
+						String prefix = line.substring(0, line.length() - this.sentinel.length());
+						if(!prefix.isEmpty()) {
+							result.append(prefix).append("\n");
+						}
+						break;
+					}
+					result.append(line).append("\n");
+				}
+			} catch(InterruptedException e) {
+				this.stop();
+				throw new RuntimeException(e);
+			}
+			this.timeout.record(System.currentTimeMillis() - time, isTimeout);
+			return isTimeout ? ProcessUtils.TIMEOUT : result.toString();
+		}
+	}
+	
+	public static class PooledShellOracle implements Oracle {
+		private final BlockingQueue<ShellWorker> idleWorkers = new LinkedBlockingQueue<ShellWorker>();
+		private final List<ShellWorker> workers = new ArrayList<ShellWorker>();
+		
+		// each worker gets its own scratch file, so pooled oracles with the same prefix never share inputs
+		public PooledShellOracle(File scratchDir, String prefix, CommandFactory factory, String exePath, boolean isError, QueryTimeout timeout, int numWorkers) {
+			String sentinel = "__glade_" + Long.toHexString(new Random().nextLong()) + "__";
+			for(int i=0; i<numWorkers; i++) {
+				File workerFile;
+				try {
+					workerFile = File.createTempFile(prefix, "", scratchDir);
+				} catch(IOException e) {
+					throw new Error(e);
+				}
+				// pools that are never closed live as long as the program
+				workerFile.deleteOnExit();
+				String workerFilename = workerFile.getPath();
+				ShellWorker worker = new ShellWorker(workerFilename, factory.getCommand(workerFilename, exePath), isError, timeout, sentinel);
+				this.workers.add(worker);
+				this.idleWorkers.add(worker);
+			}
+		}
+		
+		public PooledShellOracle(String prefix, CommandFactory factory, String exePath, boolean isError, QueryTimeout timeout, int numWorkers) {
+			this(getScratchDirectory(), prefix, factory, exePath, isError, timeout, numWorkers);
+		}
+		
+		public PooledShellOracle(String prefix, CommandFactory factory, String exePath, boolean isError, long timeoutMillis, int numWorkers) {
+			this(prefix, factory, exePath, isError, new QueryTimeout(timeoutMillis), numWorkers);
+		}
+		
+		public int getNumWorkers() {
+			return this.workers.size();
+		}
+		
+		@Override
+		public String execute(String query) {
+			ShellWorker worker;
+			try {
+				worker = this.idleWorkers.take();
+			} catch(InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+			try {
+				return worker.execute(query);
+			} finally {
+				this.idleWorkers.add(worker);
+			}
+		}
+		
+		// waits for in-flight queries; workers restart lazily if the oracle is used again
+		public void close() {
+			List<ShellWorker> stopped = new ArrayList<ShellWorker>();
+			try {
+				while(stopped.size() < this.workers.size()) {
+					ShellWorker worker = this.idleWorkers.take();
+					worker.stop();
+					delete(worker.filename);
+					stopped.add(worker);
+				}
+			} catch(InterruptedException e) {
+				throw new RuntimeException(e);
+			} finally {
+				this.idleWorkers.addAll(stopped);
+			}
+		}
+	}
+	
+	public static class ShellDiscriminativeOracle implements DiscriminativeOracle, VerdictOracle {
 		private final Oracle oracle;
+		private final int numThreads;
 		
-		public ShellDiscriminativeOracle(Oracle oracle) {
+		// numThreads > 1 is only safe for oracles that support concurrent queries
+		public ShellDiscriminativeOracle(Oracle oracle, int numThreads) {
 			this.oracle = oracle;
+			this.numThreads = numThreads;
+		}
+		
+		public ShellDiscriminativeOracle(Oracle oracle) {
+			this(oracle, 1);
 		}
 
 		@Override
 		public boolean query(String query) {
-			return this.oracle.execute(query).matches("\\s*");
+			return this.classify(query) == Verdict.VALID;
+		}
+		
+		@Override
+		public Verdict classify(String query) {
+			String result = this.oracle.execute(query);
+			if(ProcessUtils.isTimeout(result)) {
+				return Verdict.TIMEOUT;
+			}
+			return result.matches("\\s*") ? Verdict.VALID : Verdict.INVALID;
+		}
+		
+		@Override
+		public List<Boolean> queryAll(List<String> queries) {
+			return ParallelUtils.queryAll(this, queries, this.numThreads);
+		}
+		
+		@Override
+		public boolean queryAllValid(List<String> queries) {
+			return ParallelUtils.queryAllValid(this, queries, this.numThreads);
+		}
+		
+		@Override
+		public int getParallelism() {
+			return this.numThreads;
+		}
+	}
+	
+	// crashes and timeouts count as rejections
+	public static class VerdictDiscriminativeOracle implements DiscriminativeOracle, VerdictOracle {
+		private final VerdictOracle oracle;
+		private final int numThreads;
+		
+		public VerdictDiscriminativeOracle(VerdictOracle oracle, int numThreads) {
+			this.oracle = oracle;
+			this.numThreads = numThreads;
+		}
+		
+		@Override
+		public boolean query(String query) {
+			return this.oracle.classify(query) == Verdict.VALID;
+		}
+		
+		@Override
+		public Verdict classify(String query) {
+			return this.oracle.classify(query);
+		}
+		
+		@Override
+		public List<Boolean> queryAll(List<String> queries) {
+			return ParallelUtils.queryAll(this, queries, this.numThreads);
+		}
+		
+		@Override
+		public boolean queryAllValid(List<String> queries) {
+			return ParallelUtils.queryAllValid(this, queries, this.numThreads);
+		}
+		
+		@Override
+		public int getParallelism() {
+			return this.numThreads;
 		}
 	}
 	